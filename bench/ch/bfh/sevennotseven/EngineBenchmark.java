@@ -0,0 +1,257 @@
+package ch.bfh.sevennotseven;
+
+import java.awt.Point;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro benchmarks for the hot paths of the game engine.
+ * Every operation is measured on several board sizes and fill densities. Besides the time per operation,
+ *  the allocated bytes per operation and the garbage collections during the measurement are reported,
+ *  so that allocation regressions become visible.
+ *
+ * Arguments (all optional): iterations sizes densities, e.g. "20000 7,8,9,10,64,256 0.25,0.5,0.75,0.9"
+ *
+ */
+public class EngineBenchmark {
+
+	/**
+	 * One benchmarked operation. setup() is not measured and runs before every call to run().
+	 *
+	 */
+	private interface Operation {
+		void setup();
+		void run();
+	}
+
+	private final int size;
+	private final double density;
+	private final Random rand;
+	private final int[][] base; //synthetic field with the requested density
+	private final List<Point> blocks = new ArrayList<Point>(); //occupied positions of base
+	private final List<Point> empty = new ArrayList<Point>(); //empty positions of base
+	private Game game;
+	private Point src;
+	private Point dst;
+
+	/**
+	 * Creates the benchmark state for one board size and density
+	 *
+	 * @param size
+	 * @param density share of occupied positions
+	 * @param seed
+	 */
+	EngineBenchmark(int size, double density, long seed) {
+		this.size = size;
+		this.density = density;
+		this.rand = new Random(seed);
+		this.base = new int[size][size];
+
+		//occupy exactly density*size*size randomly chosen positions
+		List<Point> cells = new ArrayList<Point>();
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				cells.add(new Point(x, y));
+			}
+		}
+		Collections.shuffle(cells, rand);
+		int occupied = (int) Math.round(density * cells.size());
+		for(int i = 0; i < cells.size(); i++) {
+			Point p = cells.get(i);
+			if(i < occupied) {
+				base[p.x][p.y] = 1 + rand.nextInt(Game.numberOfColors);
+				blocks.add(p);
+			} else {
+				empty.add(p);
+			}
+		}
+		game = new Game(size, seed);
+		game.loadField(base);
+	}
+
+	/**
+	 * Restores the synthetic field (starting a new game if the undos are used up)
+	 */
+	private void reload() {
+		if(game.getAvailUndo() == 0) {
+			game = new Game(size, rand.nextLong());
+		}
+		game.loadField(base);
+	}
+
+	/**
+	 * Picks a random block as src and a random position reachable from it as dst (dst is null if there is none)
+	 */
+	private void pickMove() {
+		for(int tries = 0; tries < 16; tries++) {
+			src = blocks.get(rand.nextInt(blocks.size()));
+			List<Point> reachable = game.getReachablePoints(src);
+			if(!reachable.isEmpty()) {
+				dst = reachable.get(rand.nextInt(reachable.size()));
+				return;
+			}
+		}
+		dst = null;
+	}
+
+	/**
+	 * Runs all benchmarks for this board size and density
+	 */
+	void runAll(int iterations) {
+		if(blocks.isEmpty() || empty.isEmpty()) {
+			return;
+		}
+
+		final PathFinder pathfinder = new PathFinder();
+		measure("PathFinder.calculateCosts", iterations, new Operation() {
+			public void setup() {
+				src = blocks.get(rand.nextInt(blocks.size()));
+			}
+			public void run() {
+				pathfinder.calculateCosts(base, size, src);
+			}
+		});
+
+		measure("Game.getPath", iterations, new Operation() {
+			public void setup() {
+				src = blocks.get(rand.nextInt(blocks.size()));
+				dst = empty.get(rand.nextInt(empty.size()));
+			}
+			public void run() {
+				game.getPath(src, dst);
+			}
+		});
+
+		measure("Game.doMove", iterations, new Operation() {
+			public void setup() {
+				reload();
+				pickMove();
+			}
+			public void run() {
+				if(dst != null) game.doMove(src, dst);
+			}
+		});
+
+		measure("Game.checkRemoveBlocks", iterations, new Operation() {
+			public void setup() {
+				reload();
+				src = blocks.get(rand.nextInt(blocks.size()));
+			}
+			public void run() {
+				game.checkRemoveBlocks(src.x, src.y);
+			}
+		});
+
+		final LineScanner scanner = new LineScanner();
+		final BitBoard board = BitBoard.fromField(base, size, Game.numberOfColors);
+		final long[] lineMask = new long[board.getWords()];
+		measure("LineScanner.scan (bitboard)", iterations, new Operation() {
+			public void setup() {
+			}
+			public void run() {
+				scanner.scan(board, lineMask);
+			}
+		});
+
+		measure("LineScanner.scan (scalar)", iterations, new Operation() {
+			public void setup() {
+			}
+			public void run() {
+				scanner.scan(base, size, lineMask);
+			}
+		});
+
+		measure("Game.populateField", iterations, new Operation() {
+			public void setup() {
+				reload();
+			}
+			public void run() {
+				game.populateField();
+			}
+		});
+
+		measure("Game.doUndo (restore)", iterations, new Operation() {
+			public void setup() {
+				reload();
+				pickMove();
+				if(dst != null) game.doMove(src, dst);
+			}
+			public void run() {
+				game.doUndo();
+			}
+		});
+	}
+
+	/**
+	 * Measures an operation and prints the result
+	 */
+	private void measure(String name, int iterations, Operation op) {
+		//warmup
+		for(int i = 0; i < iterations; i++) {
+			op.setup();
+			op.run();
+		}
+
+		long gcCount = gcCount();
+		long gcTime = gcTime();
+		long[] times = new long[iterations];
+		long allocated = 0;
+		for(int i = 0; i < iterations; i++) {
+			op.setup();
+			long bytes = EngineMetrics.allocatedBytes();
+			long start = System.nanoTime();
+			op.run();
+			times[i] = System.nanoTime() - start;
+			allocated += EngineMetrics.allocatedBytes() - bytes;
+		}
+		gcCount = gcCount() - gcCount;
+		gcTime = gcTime() - gcTime;
+
+		Arrays.sort(times);
+		long total = 0;
+		for(long t : times) total += t;
+
+		System.out.printf("%-28s %4dx%-4d %4.0f%%  avg %10.1f ns  p50 %9d ns  p99 %9d ns  %10.1f B/op  gc %d (%d ms)%n",
+				name, size, size, density * 100, (double) total / iterations, times[iterations / 2],
+				times[(int) (iterations * 0.99)], allocated < 0 ? Double.NaN : (double) allocated / iterations, gcCount, gcTime);
+	}
+
+	private static long gcCount() {
+		long n = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+		return n;
+	}
+
+	private static long gcTime() {
+		long n = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionTime());
+		return n;
+	}
+
+	/**
+	 * Main method
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		String[] sizes = (args.length > 1 ? args[1] : "7,8,9,10,64,256").split(",");
+		String[] densities = (args.length > 2 ? args[2] : "0.25,0.5,0.75,0.9").split(",");
+
+		for(String size : sizes) {
+			int n = Integer.parseInt(size.trim());
+			for(String density : densities) {
+				//fewer iterations on large boards, the setup of each operation is proportional to the area
+				int scaled = Math.max(100, (int) Math.min(iterations, iterations * 100L / (n * n)));
+				new EngineBenchmark(n, Double.parseDouble(density.trim()), 42).runAll(scaled);
+			}
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package ch.bfh.sevennotseven;
+
+import java.util.Arrays;
+
+/**
+ * Bitboard representation of a game field.
+ * Stores one bit set per block color plus an occupancy mask. The bit of a cell has the index x*size+y,
+ *  so a 10x10 field fits into two longs per color.
+ * Copying a board and searching for lines are plain shift/mask operations on the words.
+ *
+ * Note: the scratch buffers used by runMask make an instance unsafe for concurrent use.
+ *
+ */
+public class BitBoard {
+
+	private final int size; //size of the field along one dimension
+	private final int cells; //number of cells (size*size)
+	private final int words; //number of longs per mask
+	private final long[] occupied; //occupancy mask
+	private final long[][] colors; //one mask per color. colors[c-1] holds the blocks with color c
+
+	//Masks of the cells from which a step in a direction stays on the field (see runMask)
+	private final long[] validRight; //y+1 is on the field
+	private final long[] validLeft; //y-1 is on the field
+	private final long[] validAll; //every cell of the field
+
+	//Scratch buffers for runMask
+	private final long[] tmpPairs;
+	private final long[] tmpShift;
+	private final long[] tmpRuns;
+
+	/**
+	 * Creates an empty board
+	 * @param size size of the field along one dimension
+	 * @param numberOfColors number of distinct block colors
+	 */
+	public BitBoard(int size, int numberOfColors) {
+		this.size = size;
+		this.cells = size * size;
+		this.words = (cells + 63) >>> 6;
+		this.occupied = new long[words];
+		this.colors = new long[numberOfColors][words];
+
+		validRight = new long[words];
+		validLeft = new long[words];
+		validAll = new long[words];
+		for(int i = 0; i < cells; i++) {
+			int y = i % size;
+			setBit(validAll, i);
+			if(y < size - 1) setBit(validRight, i);
+			if(y > 0) setBit(validLeft, i);
+		}
+
+		tmpPairs = new long[words];
+		tmpShift = new long[words];
+		tmpRuns = new long[words];
+	}
+
+	/**
+	 * Creates a board with the contents of the given field
+	 * @param field game field
+	 * @param size game size
+	 * @param numberOfColors number of distinct block colors
+	 * @return new board
+	 */
+	public static BitBoard fromField(final int[][] field, int size, int numberOfColors) {
+		BitBoard board = new BitBoard(size, numberOfColors);
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				board.set(x, y, field[x][y]);
+			}
+		}
+		return board;
+	}
+
+	/**
+	 * Returns the size of the board in one dimension
+	 * @return
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of distinct colors the board can hold
+	 * @return
+	 */
+	public int getNumberOfColors() {
+		return colors.length;
+	}
+
+	/**
+	 * Returns the color at the given position
+	 * @param x
+	 * @param y
+	 * @return color of the block, or 0 if the position is empty
+	 */
+	public int get(int x, int y) {
+		int i = x * size + y;
+		if(!testBit(occupied, i)) return 0;
+		for(int c = 0; c < colors.length; c++) {
+			if(testBit(colors[c], i)) return c + 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns whether or not the given position is empty
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean isEmpty(int x, int y) {
+		return !testBit(occupied, x * size + y);
+	}
+
+	/**
+	 * Places a block on the board
+	 * @param x
+	 * @param y
+	 * @param color color of the block, 0 clears the position
+	 */
+	public void set(int x, int y, int color) {
+		int i = x * size + y;
+		int old = get(x, y);
+		if(old != 0) {
+			clearBit(colors[old - 1], i);
+			clearBit(occupied, i);
+		}
+		if(color != 0) {
+			setBit(colors[color - 1], i);
+			setBit(occupied, i);
+		}
+	}
+
+	/**
+	 * Returns the occupancy mask. Do not modify the returned array.
+	 * @return
+	 */
+	public long[] getOccupied() {
+		return occupied;
+	}
+
+	/**
+	 * Returns the mask of the given color. Do not modify the returned array.
+	 * @param color
+	 * @return
+	 */
+	public long[] getColorMask(int color) {
+		return colors[color - 1];
+	}
+
+	/**
+	 * Calculates which blocks of the given color are part of a line of 4 or more blocks in any direction.
+	 *
+	 * @param color color to check
+	 * @param out mask that receives the result (must have the same length as the board masks)
+	 * @return true if at least one line was found
+	 */
+	public boolean runMask(int color, long[] out) {
+		final long[] mask = colors[color - 1];
+		Arrays.fill(out, 0);
+		runs(mask, 1, validRight, out); // right
+		runs(mask, size, validAll, out); // bottom
+		runs(mask, size + 1, validRight, out); // bottom right
+		runs(mask, size - 1, validLeft, out); // bottom left
+		for(int w = 0; w < words; w++) {
+			if(out[w] != 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of longs per mask
+	 * @return
+	 */
+	public int getWords() {
+		return words;
+	}
+
+	/**
+	 * Adds all cells which are part of a run of 4 or more blocks in one direction to out.
+	 *
+	 * @param mask blocks to look at
+	 * @param step index offset of one step in the direction
+	 * @param valid cells from which one step in the direction stays on the field
+	 * @param out result mask
+	 */
+	private void runs(final long[] mask, int step, final long[] valid, long[] out) {
+		//pairs: cell and its successor are both set
+		shiftDown(mask, step, tmpShift);
+		for(int w = 0; w < words; w++) {
+			tmpPairs[w] = mask[w] & tmpShift[w] & valid[w];
+		}
+
+		//runs: 3 chained pairs => 4 blocks starting at this cell
+		System.arraycopy(tmpPairs, 0, tmpRuns, 0, words);
+		shiftDown(tmpPairs, step, tmpShift);
+		for(int w = 0; w < words; w++) tmpRuns[w] &= tmpShift[w];
+		shiftDown(tmpPairs, 2 * step, tmpShift);
+		for(int w = 0; w < words; w++) tmpRuns[w] &= tmpShift[w];
+
+		//spread the run starts over the 4 cells they cover
+		for(int k = 0; k < 4; k++) {
+			shiftUp(tmpRuns, k * step, tmpShift);
+			for(int w = 0; w < words; w++) out[w] |= tmpShift[w];
+		}
+	}
+
+	/**
+	 * out[i] = in[i+n] (bitwise, over all words)
+	 */
+	private void shiftDown(final long[] in, int n, long[] out) {
+		int ws = n >>> 6;
+		int bs = n & 63;
+		for(int w = 0; w < words; w++) {
+			int src = w + ws;
+			long lo = src < words ? in[src] : 0;
+			long hi = src + 1 < words ? in[src + 1] : 0;
+			out[w] = bs == 0 ? lo : (lo >>> bs) | (hi << (64 - bs));
+		}
+	}
+
+	/**
+	 * out[i] = in[i-n] (bitwise, over all words)
+	 */
+	private void shiftUp(final long[] in, int n, long[] out) {
+		int ws = n >>> 6;
+		int bs = n & 63;
+		for(int w = words - 1; w >= 0; w--) {
+			int src = w - ws;
+			long hi = src >= 0 ? in[src] : 0;
+			long lo = src - 1 >= 0 ? in[src - 1] : 0;
+			out[w] = bs == 0 ? hi : (hi << bs) | (lo >>> (64 - bs));
+		}
+		out[words - 1] &= validAll[words - 1];
+	}
+
+	private static boolean testBit(final long[] mask, int i) {
+		return (mask[i >>> 6] & (1L << i)) != 0;
+	}
+
+	private static void setBit(long[] mask, int i) {
+		mask[i >>> 6] |= 1L << i;
+	}
+
+	private static void clearBit(long[] mask, int i) {
+		mask[i >>> 6] &= ~(1L << i);
+	}
+}
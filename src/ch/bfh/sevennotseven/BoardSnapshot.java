@@ -0,0 +1,124 @@
+package ch.bfh.sevennotseven;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of a game at the end of a step.
+ * Once the first snapshot of a game has been requested, snapshots are published after every step, undo and reset
+ *  (see Game.getSnapshot) and can be read from any thread without locking. Rows that did not change since the previous snapshot are shared with it.
+ *
+ */
+public final class BoardSnapshot {
+
+	private final long version;
+	private final int size;
+	private final int[][] rows; //rows of the field. Never modified once the snapshot is published
+	private final List<Integer> nextBlocks;
+	private final int score;
+	private final int level;
+	private final int linesLeft;
+	private final int freeMoves;
+	private final int undos;
+	private final long hash;
+
+	/**
+	 * Creates the snapshot of a game.
+	 *
+	 * @param previous previous snapshot of the same game or null
+	 * @param game game to take the snapshot of
+	 * @param dirtyRows rows which changed since the previous snapshot. Other rows are taken over from previous
+	 */
+	BoardSnapshot(BoardSnapshot previous, Game game, boolean[] dirtyRows) {
+		final int[][] field = game.getField();
+		this.version = previous == null ? 1 : previous.version + 1;
+		this.size = game.getSize();
+		this.rows = new int[size][];
+		boolean share = previous != null && previous.size == size;
+		for(int x = 0; x < size; x++) {
+			rows[x] = share && !dirtyRows[x] ? previous.rows[x] : field[x].clone();
+		}
+		this.nextBlocks = Collections.unmodifiableList(new ArrayList<Integer>(game.getNextBlocks()));
+		this.score = game.getScore();
+		this.level = game.getLevel();
+		this.linesLeft = game.getLinesLeft();
+		this.freeMoves = game.getAvailFreeMoves();
+		this.undos = game.getAvailUndo();
+		this.hash = game.getHash();
+	}
+
+	/**
+	 * Returns the version of the snapshot. Increases by one with every published snapshot of a game
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the size of the field in one dimension
+	 * @return
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the color of the block at x,y, or 0 if there is no block
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public int getColor(int x, int y) {
+		return rows[x][y];
+	}
+
+	/**
+	 * Returns a copy of the field
+	 * @return
+	 */
+	public int[][] toField() {
+		int[][] field = new int[size][];
+		for(int x = 0; x < size; x++) {
+			field[x] = rows[x].clone();
+		}
+		return field;
+	}
+
+	/**
+	 * Returns the block colors which will be placed next
+	 * @return unmodifiable list
+	 */
+	public List<Integer> getNextBlocks() {
+		return nextBlocks;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public int getLinesLeft() {
+		return linesLeft;
+	}
+
+	public int getAvailFreeMoves() {
+		return freeMoves;
+	}
+
+	public int getAvailUndo() {
+		return undos;
+	}
+
+	/**
+	 * Returns the zobrist hash of the position, see Game.getHash
+	 * @return
+	 */
+	public long getHash() {
+		return hash;
+	}
+}
@@ -0,0 +1,187 @@
+package ch.bfh.sevennotseven;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the engine. They show up in recordings (e.g. java -XX:StartFlightRecording)
+ *  next to the method samples, so that slow moves can be correlated with the board state.
+ * The engine only creates events while enabled is set, so runs without Flight Recorder do not load the event classes
+ *  and the JFR infrastructure behind them. enabled is set if Flight Recorder is running when this class is initialised
+ *  (e.g. java -XX:StartFlightRecording). For recordings started later (e.g. with jcmd JFR.start), set the system
+ *  property "sevennotseven.jfr=true", which registers a listener for the start of Flight Recorder.
+ * While enabled, the fields of an event are only filled in if it is committed.
+ * The HintEngine plays thousands of simulated moves per hint, so moves, spawns and path searches have a default
+ *  threshold and only outliers are recorded. The threshold can be lowered in the recording settings
+ *  (e.g. ch.bfh.sevennotseven.Move#threshold=0 ms).
+ *
+ */
+public final class EngineEvents {
+
+	private static final String category = "7not7";
+
+	static volatile boolean enabled = FlightRecorder.isInitialized(); //whether or not the engine creates events
+
+	static {
+		if(!enabled && Boolean.getBoolean("sevennotseven.jfr")) {
+			FlightRecorder.addListener(new FlightRecorderListener() {
+				@Override
+				public void recorderInitialized(FlightRecorder recorder) {
+					enabled = true;
+				}
+			});
+		}
+	}
+
+	private EngineEvents() {
+	}
+
+	/**
+	 * A call to Game.doMove or Game.doFreeMove, including the following step
+	 *
+	 */
+	@Name("ch.bfh.sevennotseven.Move")
+	@Label("Move")
+	@Category({category, "Engine"})
+	@Description("Attempt to move a block, including the following line check and spawn")
+	@StackTrace(false)
+	@Threshold("50 us")
+	public static class Move extends Event {
+
+		@Label("Board Size")
+		int size;
+
+		@Label("Source")
+		@Description("Source position, packed as x*size+y")
+		int src;
+
+		@Label("Destination")
+		@Description("Destination position, packed as x*size+y")
+		int dst;
+
+		@Label("Free Move")
+		boolean free;
+
+		@Label("Successful")
+		boolean successful;
+
+		@Label("Free Cells")
+		@Description("Number of free positions after the move")
+		int freeCells;
+
+		@Label("Score")
+		int score;
+
+		@Label("Level")
+		int level;
+	}
+
+	/**
+	 * A breadth first search of PathFinder.calculateCosts
+	 *
+	 */
+	@Name("ch.bfh.sevennotseven.PathSearch")
+	@Label("Path Search")
+	@Category({category, "Engine"})
+	@Description("Breadth first search for the costs to reach every position from a source")
+	@StackTrace(false)
+	@Threshold("20 us")
+	public static class PathSearch extends Event {
+
+		@Label("Board Size")
+		int size;
+
+		@Label("Source")
+		@Description("Source position, packed as x*size+y")
+		int src;
+
+		@Label("Cells Visited")
+		int cellsVisited;
+	}
+
+	/**
+	 * Blocks removed by Game.checkRemoveBlocks
+	 *
+	 */
+	@Name("ch.bfh.sevennotseven.LineClear")
+	@Label("Line Clear")
+	@Category({category, "Engine"})
+	@Description("Lines of 4 or more blocks removed from the field")
+	@StackTrace(false)
+	public static class LineClear extends Event {
+
+		@Label("Board Size")
+		int size;
+
+		@Label("Position")
+		@Description("Position of the block which completed the lines, packed as x*size+y")
+		int cell;
+
+		@Label("Color")
+		int color;
+
+		@Label("Lines")
+		@Description("Number of distinct lines, more than 1 is a combo")
+		int lines;
+
+		@Label("Blocks")
+		int blocks;
+
+		@Label("Points")
+		int points;
+	}
+
+	/**
+	 * New blocks placed by Game.populateField
+	 *
+	 */
+	@Name("ch.bfh.sevennotseven.Spawn")
+	@Label("Spawn")
+	@Category({category, "Engine"})
+	@Description("New blocks placed at random free positions")
+	@StackTrace(false)
+	@Threshold("20 us")
+	public static class Spawn extends Event {
+
+		@Label("Board Size")
+		int size;
+
+		@Label("Blocks Placed")
+		int placed;
+
+		@Label("Free Cells")
+		@Description("Number of free positions after the spawn")
+		int freeCells;
+
+		@Label("Level")
+		int level;
+	}
+
+	/**
+	 * A call to Game.doUndo
+	 *
+	 */
+	@Name("ch.bfh.sevennotseven.Undo")
+	@Label("Undo")
+	@Category({category, "Engine"})
+	@Description("Attempt to revert the last step")
+	@StackTrace(false)
+	public static class Undo extends Event {
+
+		@Label("Board Size")
+		int size;
+
+		@Label("Successful")
+		boolean successful;
+
+		@Label("Undos Left")
+		int undosLeft;
+	}
+}
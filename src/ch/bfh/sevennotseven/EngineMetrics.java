@@ -0,0 +1,320 @@
+package ch.bfh.sevennotseven;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and allocation counters for the hot paths of the engine, exposed over JMX (see EngineMetricsMBean).
+ * Recording is off by default. It is switched on with the system property "sevennotseven.metrics=true",
+ *  and can then be switched off and on again over JMX. While it is off, start and stop only read a flag, and neither
+ *  the management classes nor the MBean are loaded. Allocation tracking is switched on separately
+ *  ("sevennotseven.metrics.allocations=true"), because reading the allocated bytes of a thread costs more
+ *  than the time measurement itself.
+ *
+ * Histograms are lock free (one AtomicLongArray per operation). The buckets are log-linear: values below 16ns
+ *  have their own bucket, larger values are split into 8 buckets per power of two, so percentiles are
+ *  accurate to 12.5%.
+ *
+ * Usage:
+ *  EngineMetrics.start(Operation.MOVE);
+ *  ...
+ *  EngineMetrics.stop(Operation.MOVE);
+ * Start and stop have to be called on the same thread. Different operations may be nested, the same operation not.
+ *
+ */
+public final class EngineMetrics implements EngineMetricsMBean {
+
+	/**
+	 * Measured operations
+	 *
+	 */
+	public enum Operation {
+		MOVE, //Game.doMove and Game.doFreeMove, including the following step
+		PATH_SEARCH, //PathFinder.calculateCosts
+		POPULATE, //Game.populateField
+		LINE_CHECK, //Game.checkRemoveBlocks
+		UNDO, //Game.doUndo
+		DISPATCH //delivery of a step to the listeners (asynchronous listeners: only the hand-off to the executor)
+	}
+
+	/**
+	 * Histogram and counters of one operation
+	 *
+	 */
+	private static class Histogram {
+
+		private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong allocatedBytes = new AtomicLong();
+		private final AtomicLong allocationSamples = new AtomicLong(); //number of calls with allocation tracking
+
+		void record(long nanos) {
+			buckets.incrementAndGet(bucket(nanos));
+			totalNanos.addAndGet(nanos);
+		}
+
+		void recordAllocation(long bytes) {
+			allocatedBytes.addAndGet(bytes);
+			allocationSamples.incrementAndGet();
+		}
+
+		long count() {
+			long n = 0;
+			for(int i = 0; i < bucketCount; i++) n += buckets.get(i);
+			return n;
+		}
+
+		/**
+		 * Returns the upper bound of the bucket that contains the given percentile, in nanoseconds
+		 */
+		long percentile(double percentile) {
+			long[] counts = new long[bucketCount];
+			long n = 0;
+			for(int i = 0; i < bucketCount; i++) {
+				counts[i] = buckets.get(i);
+				n += counts[i];
+			}
+			if(n == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100);
+			long seen = 0;
+			for(int i = 0; i < bucketCount; i++) {
+				seen += counts[i];
+				if(seen >= Math.max(1, rank)) return upperBound(i);
+			}
+			return upperBound(bucketCount - 1);
+		}
+
+		void reset() {
+			for(int i = 0; i < bucketCount; i++) buckets.set(i, 0);
+			totalNanos.set(0);
+			allocatedBytes.set(0);
+			allocationSamples.set(0);
+		}
+	}
+
+	private static final int linearBuckets = 16; //values below get their own bucket
+	private static final int subBuckets = 8; //buckets per power of two above
+	private static final int bucketCount = linearBuckets + (63 - 4) * subBuckets;
+
+	private static final String objectName = "ch.bfh.sevennotseven:type=EngineMetrics";
+	private static final EngineMetrics instance = new EngineMetrics();
+	private static final Operation[] operations = Operation.values();
+
+	private static volatile boolean enabled = Boolean.getBoolean("sevennotseven.metrics");
+	private static volatile boolean trackAllocations = Boolean.getBoolean("sevennotseven.metrics.allocations") && allocatedBytes() >= 0;
+	private static final Histogram[] histograms = new Histogram[operations.length];
+	private static volatile long resetTime = System.nanoTime();
+
+	//start time and allocated bytes of the running operations of each thread, indexed by 2*ordinal
+	private static final ThreadLocal<long[]> starts = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[2 * operations.length];
+		}
+	};
+
+	static {
+		for(int i = 0; i < operations.length; i++) {
+			histograms[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * Access to the management classes, which are only loaded once metrics are switched on
+	 *
+	 */
+	private static class Management {
+
+		static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		static void register() {
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(objectName);
+				if(!server.isRegistered(name)) {
+					server.registerMBean(instance, name);
+				}
+			} catch(JMException e) {
+				System.err.println("Engine metrics not registered: " + e.getMessage());
+			}
+		}
+	}
+
+	private EngineMetrics() {
+	}
+
+	/**
+	 * Returns the MBean
+	 * @return
+	 */
+	public static EngineMetrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Registers the MBean with the platform MBean server, if recording or allocation tracking is switched on
+	 *  and the MBean is not registered already
+	 */
+	public static void register() {
+		if(enabled || trackAllocations) {
+			Management.register();
+		}
+	}
+
+	/**
+	 * Marks the beginning of an operation on the current thread
+	 * @param op
+	 */
+	public static void start(Operation op) {
+		if(!enabled) {
+			return;
+		}
+		long[] s = starts.get();
+		int i = op.ordinal() * 2;
+		s[i + 1] = trackAllocations ? allocatedBytes() : -1;
+		s[i] = System.nanoTime();
+	}
+
+	/**
+	 * Marks the end of an operation on the current thread and records its latency
+	 * @param op
+	 */
+	public static void stop(Operation op) {
+		if(!enabled) {
+			return;
+		}
+		long end = System.nanoTime();
+		long[] s = starts.get();
+		int i = op.ordinal() * 2;
+		if(s[i] == 0) {
+			return; //recording was switched on while the operation was running
+		}
+		Histogram h = histograms[op.ordinal()];
+		h.record(end - s[i]);
+		if(trackAllocations && s[i + 1] >= 0) {
+			h.recordAllocation(allocatedBytes() - s[i + 1]);
+		}
+		s[i] = 0;
+	}
+
+	/**
+	 * Returns the bucket of a value
+	 */
+	static int bucket(long nanos) {
+		if(nanos < linearBuckets) {
+			return (int) Math.max(0, nanos);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos); //at least 4
+		int sub = (int) (nanos >>> (exponent - 3)) & (subBuckets - 1);
+		return linearBuckets + (exponent - 4) * subBuckets + sub;
+	}
+
+	/**
+	 * Returns the largest value of a bucket
+	 */
+	static long upperBound(int bucket) {
+		if(bucket < linearBuckets) {
+			return bucket;
+		}
+		int exponent = (bucket - linearBuckets) / subBuckets + 4;
+		int sub = (bucket - linearBuckets) % subBuckets;
+		long lower = (long) (subBuckets + sub) << (exponent - 3);
+		return lower + (1L << (exponent - 3)) - 1;
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread, or a negative value if not supported
+	 */
+	static long allocatedBytes() {
+		if(Management.threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) Management.threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static Histogram histogram(String operation) {
+		return histograms[Operation.valueOf(operation).ordinal()];
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		EngineMetrics.enabled = enabled;
+	}
+
+	@Override
+	public boolean isAllocationTracking() {
+		return trackAllocations;
+	}
+
+	@Override
+	public void setAllocationTracking(boolean tracking) {
+		trackAllocations = tracking && allocatedBytes() >= 0;
+	}
+
+	@Override
+	public String[] getOperations() {
+		String[] names = new String[operations.length];
+		for(int i = 0; i < operations.length; i++) {
+			names[i] = operations[i].name();
+		}
+		return names;
+	}
+
+	@Override
+	public String[] getSummary() {
+		String[] lines = new String[operations.length];
+		for(int i = 0; i < operations.length; i++) {
+			String op = operations[i].name();
+			long n = getCount(op);
+			double average = n == 0 ? 0 : histograms[i].totalNanos.get() / 1000.0 / n;
+			lines[i] = String.format("%-12s count %d, %.1f/s, avg %.2f us, p50 %.2f us, p99 %.2f us, p999 %.2f us, %.1f B/call",
+					op, n, getThroughput(op), average, getPercentile(op, 50), getPercentile(op, 99),
+					getPercentile(op, 99.9), getAllocatedBytesPerCall(op));
+		}
+		return lines;
+	}
+
+	@Override
+	public long getCount(String operation) {
+		return histogram(operation).count();
+	}
+
+	@Override
+	public double getThroughput(String operation) {
+		double seconds = (System.nanoTime() - resetTime) / 1e9;
+		return seconds <= 0 ? 0 : getCount(operation) / seconds;
+	}
+
+	@Override
+	public double getPercentile(String operation, double percentile) {
+		return histogram(operation).percentile(percentile) / 1000.0;
+	}
+
+	@Override
+	public double getAllocatedBytesPerCall(String operation) {
+		Histogram h = histogram(operation);
+		long n = h.allocationSamples.get();
+		return n == 0 ? Double.NaN : (double) h.allocatedBytes.get() / n;
+	}
+
+	@Override
+	public void reset() {
+		for(Histogram h : histograms) {
+			h.reset();
+		}
+		resetTime = System.nanoTime();
+	}
+}
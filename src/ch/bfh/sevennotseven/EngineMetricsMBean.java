@@ -0,0 +1,79 @@
+package ch.bfh.sevennotseven;
+
+/**
+ * JMX interface of EngineMetrics. Operations are identified by the names of EngineMetrics.Operation (e.g. "MOVE").
+ * Latencies are reported in microseconds.
+ *
+ */
+public interface EngineMetricsMBean {
+
+	/**
+	 * Returns whether or not the engine records metrics
+	 * @return
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Switches the recording on or off
+	 * @param enabled
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * Returns whether or not the allocated bytes of every operation are measured
+	 * @return
+	 */
+	boolean isAllocationTracking();
+
+	/**
+	 * Switches the allocation tracking on or off. Has no effect if the JVM does not report allocations.
+	 * @param tracking
+	 */
+	void setAllocationTracking(boolean tracking);
+
+	/**
+	 * Returns the names of all measured operations
+	 * @return
+	 */
+	String[] getOperations();
+
+	/**
+	 * Returns one line per operation with count, throughput, p50/p99/p999 and allocations
+	 * @return
+	 */
+	String[] getSummary();
+
+	/**
+	 * Returns the number of calls of an operation since the last reset
+	 * @param operation
+	 * @return
+	 */
+	long getCount(String operation);
+
+	/**
+	 * Returns the number of calls per second since the last reset
+	 * @param operation
+	 * @return
+	 */
+	double getThroughput(String operation);
+
+	/**
+	 * Returns a latency percentile in microseconds
+	 * @param operation
+	 * @param percentile 0..100, e.g. 99.9
+	 * @return
+	 */
+	double getPercentile(String operation, double percentile);
+
+	/**
+	 * Returns the average number of bytes allocated per call, or NaN if no call was tracked
+	 * @param operation
+	 * @return
+	 */
+	double getAllocatedBytesPerCall(String operation);
+
+	/**
+	 * Clears all histograms and counters
+	 */
+	void reset();
+}
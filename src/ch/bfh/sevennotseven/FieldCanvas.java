@@ -2,9 +2,12 @@ package ch.bfh.sevennotseven;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,7 +17,7 @@ import javax.swing.JPanel;
  * FieldCanvas class, implements the field to draw upon. Draws the game field and handles mouse actions.
  * 
  */
-public class FieldCanvas extends JPanel{
+public class FieldCanvas extends JPanel implements Game.EventListener {
 	
 	// private and static members
 	private static final long serialVersionUID = 1L;
@@ -40,6 +43,13 @@ public class FieldCanvas extends JPanel{
 	private List<Point> blockedFields; //Fields that should be marked as blocked (can be null)
 	private boolean freeMoveMode = false; //Whether or not we're in free moving mode
 	
+	//Cached images, recreated when the cell size, the game size or the mode changes
+	private BufferedImage gridImage; //background and grid lines
+	private BufferedImage[] blockImages; //one block per color
+	private int cachedSpace; //cell size the images were created for
+	private int cachedSize; //game size the grid image was created for
+	private boolean cachedFreeMoveMode; //mode the grid image was created for
+	
 	/**
 	 * Constructor of FieldCanvas
 	 * 
@@ -64,7 +74,7 @@ public class FieldCanvas extends JPanel{
 					} else {
 						blockedFields = game.getUnreachablePoints(src);
 					}
-					repaint();
+					repaintCells(blockedFields);
 				}
 			}
 			
@@ -78,6 +88,7 @@ public class FieldCanvas extends JPanel{
 					Point lastDst = dst;
 					dst = FieldCanvas.this.getClickPoint(e.getPoint());
 					if(lastDst!=dst && dst!=null) { //hovered field changed
+						repaintCells(path); //old path
 						if(freeMoveMode) {
 							//Check if the target position is empty and we could not move the block there in normal mode
 							if(!game.canMove(src, dst) && game.getField()[dst.x][dst.y]==0) {
@@ -91,7 +102,8 @@ public class FieldCanvas extends JPanel{
 						} else { //not in freemove mode
 							path= game.getPath(src, dst); //calculate path from src to dst (pathfinding)
 						}
-						repaint();
+						repaintCells(path); //new path
+						repaintCell(src);
 					}
 				} else { //no valid src
 					dst = null;
@@ -106,6 +118,8 @@ public class FieldCanvas extends JPanel{
 			public void mouseReleased(MouseEvent e) {
 				super.mouseReleased(e);
 				dst = FieldCanvas.this.getClickPoint(e.getPoint());
+				repaintCells(path);
+				repaintCells(blockedFields);
 				path = null; //do no longer paint path
 				if(freeMoveMode) {
 					if(!game.canMove(src, dst)) { //if we couldn't move there in normal mode
@@ -117,16 +131,19 @@ public class FieldCanvas extends JPanel{
 						game.doMove(src, dst);
 					}
 				}
+				if(freeMoveMode) {
+					repaint(); //background changes
+				}
 				freeMoveMode = false;
 				src = null;
 				blockedFields = null;
-				repaint();
 			}
 		};
 		
 		addMouseListener(ad);
 		addMouseMotionListener(ad);
 		this.game=g;
+		g.addEventListener(this);
 
 	}
 	
@@ -140,7 +157,7 @@ public class FieldCanvas extends JPanel{
 		} else if(game.getAvailFreeMoves()>0) {
 			freeMoveMode = true;
 		}
-		repaint();
+		repaint(); //background changes
 	}
 	
 	/**
@@ -149,11 +166,103 @@ public class FieldCanvas extends JPanel{
 	 */
 	public void doUndo() {
 		if(game.getAvailUndo()>0) {
-			game.doUndo();
+			game.doUndo(); //the changed cells are repainted in gameChanged
+		}
+	}
+	
+	/**
+	 * GameEventListener: repaints the cells that changed during the last step
+	 */
+	@Override
+	public void gameChanged(GameEvent event) {
+		if(event.getType() == GameEvent.Type.RESET) {
 			repaint();
+			return;
+		}
+		int size = game.getSize();
+		int space = getSpace();
+		for(int i = 0; i < event.getChangedCellCount(); i++) {
+			int cell = event.getChangedCell(i);
+			repaintCell(cell / size, cell % size, space);
 		}
 	}
 	
+	/**
+	 * Returns the size of a cell in pixels
+	 */
+	private int getSpace() {
+		int total = Math.min(this.getHeight()-borderTop-borderBottom,FieldCanvas.this.getWidth()-borderLeft-borderRight);
+		return total/game.getSize();
+	}
+	
+	/**
+	 * Marks the area of the given cells as dirty
+	 * 
+	 * @param cells cells to repaint (can be null)
+	 */
+	private void repaintCells(List<Point> cells) {
+		if(cells == null) return;
+		int space = getSpace();
+		for(int i=0; i<cells.size(); i++) {
+			Point p = cells.get(i);
+			repaintCell(p.x, p.y, space);
+		}
+	}
+	
+	private void repaintCell(Point p) {
+		repaintCell(p.x, p.y, getSpace());
+	}
+	
+	private void repaintCell(int x, int y, int space) {
+		repaint(borderLeft + x*space, borderTop + y*space, space+1, space+1);
+	}
+	
+	/**
+	 * Recreates the cached grid and block images if the layout or the mode changed
+	 */
+	private void updateImageCache(int space, int total) {
+		if(gridImage != null && cachedSpace == space && cachedSize == game.getSize() && cachedFreeMoveMode == freeMoveMode) {
+			return;
+		}
+		
+		gridImage = createCachedImage(total+1, total+1);
+		Graphics g = gridImage.getGraphics();
+		g.setColor(freeMoveMode ? Color.gray : Color.lightGray);
+		g.fillRect(0, 0, total, total);
+		g.setColor(Color.white);
+		for(int i=0; i<=game.getSize(); i++) {
+			g.drawLine(0,i*space,total,i*space);
+			g.drawLine(i*space,0,i*space,total);
+		}
+		g.dispose();
+		
+		if(blockImages == null || cachedSpace != space) {
+			blockImages = new BufferedImage[colors.length];
+			for(int i=0; i<colors.length; i++) {
+				blockImages[i] = createCachedImage(Math.max(1, space -3), Math.max(1, space -3));
+				Graphics b = blockImages[i].getGraphics();
+				b.setColor(colors[i]);
+				b.fillRect(0, 0, space -3, space -3);
+				b.dispose();
+			}
+		}
+		
+		cachedSpace = space;
+		cachedSize = game.getSize();
+		cachedFreeMoveMode = freeMoveMode;
+	}
+	
+	/**
+	 * Creates an opaque image which is compatible with the screen, if possible
+	 */
+	private BufferedImage createCachedImage(int width, int height) {
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		if(gc != null) {
+			return gc.createCompatibleImage(width, height);
+		}
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+	
 	/**
 	 * Maps a mouse position to game coordinates
 	 * 
@@ -172,43 +281,39 @@ public class FieldCanvas extends JPanel{
 	
 	/**
 	 * Paint the game field.
+	 * Only the cells inside the clip area are painted, the background and grid lines are copied from a cached image.
 	 * 
 	 */
 	public void paintComponent(Graphics g) {
 		super.paintComponent(g);
 		
 		if(game==null) return;
-
-		//Draw field (background and lines)
-		if(freeMoveMode) {
-			g.setColor(Color.gray);
-		} else {
-			g.setColor(Color.lightGray);
-		}
 		
 		g.translate(borderLeft, borderTop);
 		int total = Math.min(this.getHeight()-borderTop-borderBottom,FieldCanvas.this.getWidth()-borderLeft-borderRight);
 		int space = total/game.getSize();
+		if(space <= 3) return; //too small to draw anything
 		total = space*game.getSize();
 		
-		g.setClip(0, 0, total+1,total+1);
-		g.fillRect(0, 0, total,total);
+		//Draw field (background and lines)
+		updateImageCache(space, total);
+		g.clipRect(0, 0, total+1,total+1);
+		g.drawImage(gridImage, 0, 0, null);
 		
-		g.setColor(Color.white);
-	
-		for(int i=0; i<=game.getSize(); i++) {
-			g.drawLine(0,i*space,total,i*space);
-			g.drawLine(i*space,0,i*space,total);
-		}
-	
+		//Determine the cells inside the clip area
+		Rectangle clip = g.getClipBounds();
+		int x0 = Math.max(0, clip.x/space);
+		int y0 = Math.max(0, clip.y/space);
+		int x1 = Math.min(game.getSize()-1, (clip.x+clip.width)/space);
+		int y1 = Math.min(game.getSize()-1, (clip.y+clip.height)/space);
 		
-		//Draw blocks		
-		for(int x=0; x<game.getSize(); x++) {
-			for(int y=0; y<game.getSize(); y++) {
-				int colorCode = game.getField()[x][y];
+		//Draw blocks
+		final int[][] field = game.getField();
+		for(int x=x0; x<=x1; x++) {
+			for(int y=y0; y<=y1; y++) {
+				int colorCode = field[x][y];
 				if(colorCode!=0) {
-					g.setColor(colors[colorCode-1]);
-					g.fillRect(x*space+2, y*space+2, space -3, space -3);	
+					g.drawImage(blockImages[colorCode-1], x*space+2, y*space+2, null);
 				}
 			}
 		}
@@ -218,6 +323,7 @@ public class FieldCanvas extends JPanel{
 			g.setColor(Color.darkGray);
 			for(int i=0; i<blockedFields.size(); i++) {
 				Point p = blockedFields.get(i);
+				if(p.x < x0 || p.x > x1 || p.y < y0 || p.y > y1) continue;
 				g.drawLine(p.x*space+1, p.y*space+1, (p.x+1)*space, (p.y+1)*space);
 				g.drawLine((p.x+1)*space-1, p.y*space+2, p.x*space+1, (p.y+1)*space);
 			}
@@ -225,7 +331,7 @@ public class FieldCanvas extends JPanel{
 		
 		//Draw Path
 		if(path!=null && src!=null && dst!=null) {
-			int colorCode = game.getField()[src.x][src.y];
+			int colorCode = field[src.x][src.y];
 			Color c = colors[colorCode-1];
 			int sSpace = space/3;	
 			int sSpace2 = space/5;
@@ -238,10 +344,11 @@ public class FieldCanvas extends JPanel{
 			
 			for(int i=1; i<path.size() -1; i++) {
 				Point p = path.get(i);
+				if(p.x < x0 || p.x > x1 || p.y < y0 || p.y > y1) continue;
 				g.fillRect(p.x*space+2+sSpace, p.y*space+2+sSpace, space -3 - 2* sSpace, space -3 - 2* sSpace);
 			}
 			
 			g.fillRect(dst.x*space+2+sSpace2, dst.y*space+2+sSpace2, space -3 - 2* sSpace2, space -3 - 2* sSpace2);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,106 @@
+package ch.bfh.sevennotseven;
+
+/**
+ * Indexable set of the free cells of a game field.
+ * Cells (x*size+y) are kept in a dense array, and a position index maps every cell to its slot in that array.
+ * Adding and removing (by swapping with the last element) as well as drawing a uniformly distributed
+ *  random element take constant time.
+ *
+ */
+public class FreeCellSet {
+
+	private static final int ABSENT = -1;
+
+	private final int[] cells; //the free cells, dense in 0..count-1
+	private final int[] slots; //slot of each cell in cells, or ABSENT
+	private int count; //number of free cells
+
+	/**
+	 * Creates a set which contains all cells of a field of the given size
+	 * @param size game size
+	 */
+	public FreeCellSet(int size) {
+		int n = size * size;
+		cells = new int[n];
+		slots = new int[n];
+		for(int i = 0; i < n; i++) {
+			cells[i] = i;
+			slots[i] = i;
+		}
+		count = n;
+	}
+
+	/**
+	 * Returns the number of free cells
+	 * @return
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns whether or not the given cell is free
+	 * @param cell
+	 * @return
+	 */
+	public boolean contains(int cell) {
+		return slots[cell] != ABSENT;
+	}
+
+	/**
+	 * Returns the i-th free cell (in no particular order)
+	 * @param i index between 0 and size()-1
+	 * @return
+	 */
+	public int get(int i) {
+		return cells[i];
+	}
+
+	/**
+	 * Marks a cell as free
+	 * @param cell
+	 */
+	public void add(int cell) {
+		if(slots[cell] != ABSENT) return;
+		cells[count] = cell;
+		slots[cell] = count;
+		count++;
+	}
+
+	/**
+	 * Marks a cell as occupied
+	 * @param cell
+	 */
+	public void remove(int cell) {
+		int slot = slots[cell];
+		if(slot == ABSENT) return;
+		int last = cells[--count]; //move the last cell into the gap
+		cells[slot] = last;
+		slots[last] = slot;
+		slots[cell] = ABSENT;
+	}
+
+	/**
+	 * Rearranges the free cells, so that get(i) returns order[i]. Together with the random number generator,
+	 *  the order decides where new blocks are placed, so it is part of a saved game.
+	 *
+	 * @param order the same cells as currently in the set, in the new order
+	 * @throws IllegalArgumentException if order does not contain exactly the cells of the set
+	 */
+	public void setOrder(int[] order) {
+		if(order.length != count) {
+			throw new IllegalArgumentException("Wrong number of free cells");
+		}
+		for(int i = 0; i < count; i++) {
+			if(order[i] < 0 || order[i] >= slots.length || slots[order[i]] == ABSENT) {
+				for(int j = 0; j < count; j++) slots[cells[j]] = j; //undo the marks
+				throw new IllegalArgumentException("Cell " + order[i] + " is not free");
+			}
+			slots[order[i]] = ABSENT; //marks the cell as seen, so duplicates are detected
+		}
+		for(int i = 0; i < count; i++) {
+			cells[i] = order[i];
+			slots[order[i]] = i;
+		}
+	}
+}
@@ -4,7 +4,8 @@ import java.awt.Point;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Game {
 	
@@ -18,73 +19,72 @@ public class Game {
 		public void gameUpdated();
 	}
 	
-	// Constants
-	static final int numberOfColors = 5; //number of distinct block colors
-	static final int linesPerLevel = 40; //number of lines the user has to clear before he moves to the next level
-	static final int blocksPerLevel []= {3,4,5}; //number of blocks that are added in each step for the first n=3 levels.
+	/**
+	 * Interface for Game Event Listeners
+	 * Listeners who want to know what exactly changed during a step should implement this interface
+	 *  and call addEventListener on the Game class.
+	 *
+	 */
+	public interface EventListener {
+		public void gameChanged(GameEvent event);
+	}
 	
 	/**
-	 * Class that stores one specific state of the game and restores it on demand
+	 * A registered event listener together with the executor it wants to be called on
 	 *
 	 */
-	private class State {
-		
-		/**
-		 * Creates new State Object containing the current game state
-		 */
-		State() {
-			field = new int[size][size];
-			//Deep copy field array
-			for(int i=0; i<size; i++) {
-				field[i] = Arrays.copyOf(Game.this.field[i], size); //copies one dimension
-			}
-			
-			nextBlocks = new ArrayList<Integer>(Game.this.nextBlocks);
-			score = Game.this.score;	
-			linesLeft = Game.this.linesLeft;
-			level = Game.this.level;
-		}
-		
-		//Storage for the state variables
-		private ArrayList<Integer> nextBlocks;
-		private int score;
-		private int field[][];
-		private int linesLeft;
-		private int level;
+	private static class EventRegistration {
+		final EventListener listener;
+		final Executor executor; //null to call the listener directly
 		
-		/**
-		 * Restores the game state
-		 */
-		void restore() {
-			Game.this.score = score;
-			Game.this.field = field;
-			Game.this.nextBlocks = nextBlocks;
-			Game.this.linesLeft = linesLeft;
-			Game.this.level = level;
+		EventRegistration(EventListener listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
 		}
-		
 	}
 	
+	// Constants
+	static final int numberOfColors = 5; //number of distinct block colors
+	static final int linesPerLevel = 40; //number of lines the user has to clear before he moves to the next level
+	static final int blocksPerLevel []= {3,4,5}; //number of blocks that are added in each step for the first n=3 levels.
+	static final int largeBoardSize = 128; //from this size on, the empty regions are labelled tile by tile in parallel
+	static final int maxSize = Math.min(0xFFFF, Integer.getInteger("sevennotseven.maxSize", 512)); //largest supported game size
+	
 	// Private members
 	//  State relevant members that can be undone by calling doUndo()
 	private int[][] field; //current game field with all blocks. an entry of 0 means there's no block at this position
+	private BitBoard board; //bitboard representation of field. Always in sync with field (see setCell)
 	private ArrayList<Integer> nextBlocks; //the colors which will be placed in the next move
 	private int score; //the current score
 	private int level; //the current level
 	private int linesLeft; //the number of lines left to the next level
+	private long fieldHash; //zobrist hash of field, updated in setCell
+	private long queueHash; //zobrist hash of nextBlocks, see rehashQueue
 	
 	//General stuff
-	private ArrayList<State> lastStates; //Last Game States. Has one entry per move
+	private UndoJournal journal; //Changes of the last steps. Holds at most numUndos steps
 	private int size; //size of the field along one dimension
-	private int freeBlocks; //number of free block positions on the field
+	private FreeCellSet freeCells; //free block positions on the field
+	private LineTable lines; //line geometry for the current size, used by checkRemoveBlocks
+	private final int[] matches = new int[LineTable.directions]; //scratch buffer of checkRemoveBlocks
 	private int freeMoves; //number of freemoves left
 	private int numUndos; //number of undos left
-	private Random rand; //instance to get random numbers from
+	private GameRandom rand; //instance to get random numbers from
 	private ArrayList<UpdateListener> updateListeners; //registered listeners
+	private ArrayList<EventRegistration> eventListeners; //registered event listeners
+	private GameEvent.Builder events; //changes of the current step, or null if there are no event listeners
+	private ReplayLog replayLog; //log of all successful commands, or null if the game is not recorded
+	private int batchDepth; //greater than 0 while doMoves runs. The moves of a batch form a single step
+	private final AtomicReference<BoardSnapshot> snapshot = new AtomicReference<BoardSnapshot>(); //last published state, null until requested
+	private boolean[] dirtyRows; //rows of field that changed since the last published snapshot
 	
 	//Stuff for pathfinding
-	private PathFinder pathfinder; //Path finder helper instance
-	private Point lastSrc; //last src point that was used with pathfinder
+	private RegionIndex regions; //labelled empty regions, answers reachability questions
+	private MobilityIndex mobility; //blocks that can be moved, decides whether the game is over
+	private long legalMoves; //number of normal moves, valid if legalMovesGeneration == generation
+	private long legalMovesGeneration = -1;
+	private PathCache paths; //recent path searches, keyed on (generation, src)
+	private long generation; //changes with every modification of the field
 	
 	public Game(){
 		this(7);
@@ -96,12 +96,80 @@ public class Game {
 	 * @param size
 	 */
 	public Game (int size) {		
-		rand = new Random(); // Initialize random object
+		this(size, new GameRandom());
+	}
+	
+	/**
+	 * Constructor for reproducible games. Two games with the same size and seed place the same blocks
+	 *  as long as the same moves are made.
+	 * 
+	 * @param size
+	 * @param seed seed for the random number generator
+	 */
+	public Game (int size, long seed) {
+		this(size, new GameRandom(seed));
+	}
+	
+	/**
+	 * Constructor for reproducible games which can record a replay log of the game.
+	 * 
+	 * @param size
+	 * @param seed seed for the random number generator
+	 * @param record whether or not to record the game (see getReplayLog)
+	 */
+	public Game (int size, long seed, boolean record) {
+		this(size, new GameRandom(seed));
+		if(record) {
+			replayLog = new ReplayLog(size, seed);
+		}
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param size
+	 * @param rand instance to get random numbers from
+	 */
+	private Game (int size, GameRandom rand) {
+		this.rand = rand;
 		this.updateListeners = new ArrayList<UpdateListener>();
-		this.pathfinder = new PathFinder();
+		this.eventListeners = new ArrayList<EventRegistration>();
+		this.paths = new PathCache();
 		this.reset(size);
 	}
 	
+	/**
+	 * Copy constructor, see copy()
+	 * 
+	 * @param other game to copy
+	 * @param rand instance to get random numbers from
+	 */
+	private Game (Game other, GameRandom rand) {
+		this.rand = rand;
+		this.updateListeners = new ArrayList<UpdateListener>();
+		this.eventListeners = new ArrayList<EventRegistration>();
+		this.paths = new PathCache();
+		initField(other.size);
+		loadField(other.field);
+		
+		nextBlocks = new ArrayList<Integer>(other.nextBlocks);
+		rehashQueue();
+		level = other.level;
+		score = other.score;
+		numUndos = other.numUndos;
+		freeMoves = other.freeMoves;
+		linesLeft = other.linesLeft;
+		publishSnapshot();
+	}
+	
+	/**
+	 * Returns the replay log of this game
+	 * @return the log, or null if the game is not recorded
+	 */
+	public ReplayLog getReplayLog(){
+		return replayLog;
+	}
+	
 	/**
 	 * Returns the number of freemoves left 
 	 * @return
@@ -159,14 +227,100 @@ public class Game {
 		return nextBlocks;
 	}
 	
+	/**
+	 * Returns the number of empty positions on the field
+	 * @return
+	 */
+	int countFreeCells(){
+		return freeCells.size();
+	}
+	
+	/**
+	 * Returns the number of distinct empty regions on the field
+	 * @return
+	 */
+	int countEmptyRegions(){
+		return regions.getRegionCount();
+	}
+	
+	/**
+	 * Returns the number of blocks that have an empty direct neighbour and can therefore be moved
+	 * @return
+	 */
+	int countMobileBlocks(){
+		return mobility.getMobileBlockCount();
+	}
+	
+	/**
+	 * Returns whether or not the game is over: no block can be moved any more, because the field is full
+	 *  (or no block is left). Free moves do not help then, as they need a block and an empty position as well.
+	 * Maintained incrementally, takes constant time.
+	 * @return
+	 */
+	public boolean isGameOver(){
+		return mobility.getMobileBlockCount() == 0;
+	}
+	
+	/**
+	 * Returns the number of legal normal moves (pairs of a block and an empty position reachable from it).
+	 * Free moves are not counted. The count is calculated once per position and then cached.
+	 * @return
+	 */
+	public long getLegalMoveCount(){
+		if(legalMovesGeneration != generation) {
+			legalMoves = mobility.getMobileBlockCount() == 0 ? 0 : regions.countMoves();
+			legalMovesGeneration = generation;
+		}
+		return legalMoves;
+	}
+	
+	/**
+	 * Returns the 64 bit zobrist hash of the current position (field, next blocks and level).
+	 * The hash is maintained incrementally and does not depend on the moves that lead to the position.
+	 * @return
+	 */
+	public long getHash(){
+		return fieldHash ^ queueHash ^ Zobrist.levelKey(level);
+	}
+	
+	/**
+	 * Returns a counter which changes with every modification of the field.
+	 * Results derived from the field (e.g. pathes) stay valid as long as the generation is the same.
+	 * @return
+	 */
+	public long getGeneration(){
+		return generation;
+	}
+	
+	/**
+	 * Returns the state of the game at the end of the last step, undo or reset.
+	 * Snapshots are only published once they are used: the first call takes a snapshot of the current state and has to
+	 *  be made by the thread that plays the game (e.g. right after creating it). From then on, a snapshot is published
+	 *  after every step, and unlike the other getters this method can be called from any thread while the game is played.
+	 * @return
+	 */
+	public BoardSnapshot getSnapshot(){
+		BoardSnapshot s = snapshot.get();
+		return s != null ? s : takeSnapshot();
+	}
+	
 	/**
 	 * Returns the current game field
+	 * The array is a view of the board and must not be modified.
 	 * @return
 	 */
 	public final int[][] getField(){
 		return field;
 	}
 	
+	/**
+	 * Returns the bitboard representation of the current game field. Must not be modified.
+	 * @return
+	 */
+	public final BitBoard getBitBoard(){
+		return board;
+	}
+	
 	/**
 	 * Returns whether or not we can move from src to dst without crossing any walls
 	 * @param src start point
@@ -174,7 +328,52 @@ public class Game {
 	 * @return true if move is possible
 	 */
 	public boolean canMove(Point src, Point dst){
-		return getPath(src, dst) != null;
+		return canMove(cellOf(src), cellOf(dst));
+	}
+	
+	/**
+	 * Returns whether or not we can move from src to dst without crossing any walls
+	 * @param src start position, packed as x*size+y
+	 * @param dst destination position, packed as x*size+y
+	 * @return true if move is possible
+	 */
+	public boolean canMove(int src, int dst){
+		if(!isCell(src) || !isCell(dst)) {
+			return false;
+		}
+		if(src == dst) {
+			return true;
+		}
+		return regions.isReachable(src / size, src % size, dst / size, dst % size);
+	}
+	
+	/**
+	 * Returns the packed position (x*size+y) of a point, or -1 if the point is outside of the field
+	 * @param p
+	 * @return
+	 */
+	public int cellOf(Point p){
+		if(p.x < 0 || p.y < 0 || p.x >= size || p.y >= size) {
+			return -1;
+		}
+		return p.x * size + p.y;
+	}
+	
+	/**
+	 * Returns whether or not cell is a packed position on the field
+	 */
+	private boolean isCell(int cell){
+		return cell >= 0 && cell < size * size;
+	}
+	
+	/**
+	 * Returns the best move for the current position, as found by the HintEngine within the given time.
+	 * 
+	 * @param budgetMillis time budget in milliseconds
+	 * @return best move, or null if no move is possible
+	 */
+	public Move getHint(long budgetMillis){
+		return HintEngine.getDefault().findBestMove(this, budgetMillis);
 	}
 	
 	/**
@@ -196,14 +395,111 @@ public class Game {
 		updateListeners.remove(listener);
 	}
 	
+	/**
+	 * Adds an event listener to the game object.
+	 * The listener will be called on the thread that changed the game, once at the end of every step, undo and reset.
+	 * 
+	 * @param listener
+	 */
+	public void addEventListener(EventListener listener){
+		addEventListener(listener, null);
+	}
+	
+	/**
+	 * Adds an event listener to the game object, which will be called asynchronously on the given executor.
+	 * The events are delivered in order if the executor runs its tasks in order (e.g. a single thread executor).
+	 * 
+	 * @param listener
+	 * @param executor executor to call the listener on, or null to call it directly
+	 */
+	public void addEventListener(EventListener listener, Executor executor){
+		if(events == null) {
+			events = new GameEvent.Builder(size);
+		}
+		eventListeners.add(new EventRegistration(listener, executor));
+	}
+	
+	/**
+	 * Removes the event listener from the game object.
+	 * The listener will no longer be called
+	 * @param listener
+	 */
+	public void removeEventListener(EventListener listener){
+		for(int i = 0; i < eventListeners.size(); i++) {
+			if(eventListeners.get(i).listener == listener) {
+				eventListeners.remove(i);
+				break;
+			}
+		}
+		if(eventListeners.isEmpty()) {
+			events = null;
+		}
+	}
+	
 	/**
 	 * Emits the game change event to all registered listeners
 	 * 
+	 * @param type kind of the step that just ended
 	 */
-	private void emitUpdateEvent(){
+	private void emitUpdateEvent(GameEvent.Type type){
+		EngineMetrics.start(EngineMetrics.Operation.DISPATCH);
 		for(UpdateListener e: updateListeners) {
 			e.gameUpdated();
 		}
+		if(events == null) {
+			EngineMetrics.stop(EngineMetrics.Operation.DISPATCH);
+			return;
+		}
+		
+		final GameEvent event = events.build(type, getSnapshot());
+		for(EventRegistration r: eventListeners) {
+			final EventListener listener = r.listener;
+			if(r.executor == null) {
+				listener.gameChanged(event);
+			} else {
+				r.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						listener.gameChanged(event);
+					}
+				});
+			}
+		}
+		EngineMetrics.stop(EngineMetrics.Operation.DISPATCH);
+	}
+	
+	/**
+	 * Applies a sequence of moves and free moves as a single step. Stops at the first move that is not possible.
+	 * All applied moves are undone together by one undo, the snapshot is published once
+	 *  and the listeners receive a single STEP event with the changes of all moves.
+	 * 
+	 * @param moves moves to apply, in order
+	 * @return number of applied moves
+	 */
+	public int doMoves(List<Move> moves){
+		int applied = 0;
+		batchDepth++;
+		try {
+			for(int i = 0; i < moves.size(); i++) {
+				if(!moves.get(i).applyTo(this)) {
+					break;
+				}
+				applied++;
+			}
+		} finally {
+			batchDepth--;
+		}
+		
+		if(applied > 0 && batchDepth == 0) {
+			journal.end();
+			journal.setCapacity(numUndos);
+			if(replayLog != null) {
+				replayLog.recordBatch(moves, applied, size);
+			}
+			publishSnapshot();
+			emitUpdateEvent(GameEvent.Type.STEP);
+		}
+		return applied;
 	}
 	
 	/**
@@ -214,20 +510,75 @@ public class Game {
 	 * @return True if a move was successful
 	 */
 	public boolean doMove(Point src, Point dst){
-		if(field[src.x][src.y] == 0 || field[dst.x][dst.y] != 0 || src.equals(dst)){
+		return doMove(cellOf(src), cellOf(dst));
+	}
+	
+	/**
+	 * Try to move the block from src to dst (without crossing any walls)
+	 * 
+	 * @param src source block position, packed as x*size+y
+	 * @param dst destination position, packed as x*size+y
+	 * @return True if a move was successful
+	 */
+	public boolean doMove(int src, int dst){
+		EngineMetrics.start(EngineMetrics.Operation.MOVE);
+		EngineEvents.Move event = null;
+		if(EngineEvents.enabled){
+			event = new EngineEvents.Move();
+			event.begin();
+		}
+		boolean moved = move(src, dst);
+		EngineMetrics.stop(EngineMetrics.Operation.MOVE);
+		if(event != null){
+			commitMoveEvent(event, src, dst, false, moved);
+		}
+		return moved;
+	}
+	
+	/**
+	 * Fills in and commits a move event, if it is recorded
+	 */
+	private void commitMoveEvent(EngineEvents.Move event, int src, int dst, boolean free, boolean moved){
+		if(event.shouldCommit()){
+			event.size = size;
+			event.src = src;
+			event.dst = dst;
+			event.free = free;
+			event.successful = moved;
+			event.freeCells = freeCells.size();
+			event.score = score;
+			event.level = level;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Implementation of doMove, without metrics
+	 */
+	private boolean move(int src, int dst){
+		if(!isCell(src) || !isCell(dst) || src == dst){
+			return false;
+		}
+		int srcX = src / size, srcY = src % size;
+		int dstX = dst / size, dstY = dst % size;
+		if(field[srcX][srcY] == 0 || field[dstX][dstY] != 0){
 			return false;
 		}
 		
-		if(!canMove(src, dst)){
+		if(!regions.isReachable(srcX, srcY, dstX, dstY)){
 			return false; // checking if there is a path from src to dst
 		}
 		
 		saveStep();
 		
-		field[dst.x][dst.y] = field[src.x][src.y];
-		field[src.x][src.y] = 0;
+		setCell(dstX, dstY, field[srcX][srcY]);
+		setCell(srcX, srcY, 0);
 		
-		nextStep(dst); // cleanup rows or add new blocks
+		if(replayLog != null && batchDepth == 0) {
+			replayLog.recordMove(src, dst, false);
+		}
+		
+		nextStep(dstX, dstY); // cleanup rows or add new blocks
 		
 		return true;
 	}
@@ -240,28 +591,107 @@ public class Game {
 	 * @return Shortest path between src and dst, or null if there is no path
 	 */
 	public List<Point> getPath(final Point src, final Point dst){
+		if(!canMove(src, dst)) {
+			return null; //no need to search, the region labels already tell us that there is no path
+		}
 		
-		//recalculate costs only if src changed
-		if(lastSrc==null || !src.equals(lastSrc)) {
-			pathfinder.calculateCosts(field, size, src);
+		//costs are only recalculated if src or the field changed
+		return paths.get(field, size, cellOf(src), generation).getPath(dst);
+	}
+	
+	/**
+	 * Returns the shortest path between src and dst (without crossing any walls)
+	 * 
+	 * @param src source position, packed as x*size+y
+	 * @param dst destination position, packed as x*size+y
+	 * @param out receives the packed positions of the path, from src to dst. Must hold size*size entries
+	 * @return length of the path (including src and dst), or -1 if there is no path
+	 */
+	public int getPath(int src, int dst, int[] out){
+		if(!canMove(src, dst)) {
+			return -1;
 		}
-		return pathfinder.getPath(dst);
+		return paths.get(field, size, src, generation).getPath(dst, out);
 	}
 	
+	/**
+	 * Returns all empty points to which the block at src could be moved without crossing any walls
+	 * 
+	 * @param src
+	 * @return
+	 */
 	public List<Point> getReachablePoints(final Point src) {
-		//recalculate costs only if necessary
-		if(lastSrc==null || !src.equals(lastSrc)) {
-			pathfinder.calculateCosts(field, size, src);
-		}
-		return pathfinder.getReachablePoints();
+		int[] cells = new int[size * size];
+		return toPoints(cells, collectCells(cellOf(src), cells, true));
 	}
 	
+	/**
+	 * Returns all empty points to which the block at src can NOT be moved without crossing any walls
+	 * 
+	 * @param src
+	 * @return
+	 */
 	public List<Point> getUnreachablePoints(final Point src) {
-		//recalculate costs only if necessary
-		if(lastSrc==null || !src.equals(lastSrc)) {
-			pathfinder.calculateCosts(field, size, src);
+		int[] cells = new int[size * size];
+		return toPoints(cells, collectCells(cellOf(src), cells, false));
+	}
+	
+	/**
+	 * Stores all empty positions to which the block at src could be moved without crossing any walls in out
+	 * 
+	 * @param src source position, packed as x*size+y
+	 * @param out receives the packed positions. Must hold size*size entries
+	 * @return number of positions stored in out
+	 */
+	public int getReachableCells(int src, int[] out) {
+		return collectCells(src, out, true);
+	}
+	
+	/**
+	 * Stores all empty positions to which the block at src can NOT be moved without crossing any walls in out
+	 * 
+	 * @param src source position, packed as x*size+y
+	 * @param out receives the packed positions. Must hold size*size entries
+	 * @return number of positions stored in out
+	 */
+	public int getUnreachableCells(int src, int[] out) {
+		return collectCells(src, out, false);
+	}
+	
+	/**
+	 * Collects the empty positions (except src) which are reachable/unreachable from src, using the region labels
+	 * 
+	 * @param src
+	 * @param out receives the packed positions, in ascending order
+	 * @param reachable whether to collect the reachable or the unreachable positions
+	 * @return number of positions stored in out
+	 */
+	private int collectCells(int src, int[] out, boolean reachable) {
+		if(!isCell(src)) {
+			return 0;
 		}
-		return pathfinder.getUnreachablePoints();
+		int srcX = src / size, srcY = src % size;
+		int n = 0;
+		for(int x=0; x<size; x++) {
+			for(int y=0; y<size; y++) {
+				if(field[x][y] != 0 || (srcX == x && srcY == y)) continue;
+				if(regions.isReachable(srcX, srcY, x, y) == reachable) {
+					out[n++] = x * size + y;
+				}
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * Converts the first n packed positions of cells to points
+	 */
+	private List<Point> toPoints(int[] cells, int n) {
+		ArrayList<Point> res = new ArrayList<Point>(n);
+		for(int i=0; i<n; i++) {
+			res.add(new Point(cells[i] / size, cells[i] % size));
+		}
+		return res;
 	}
 	
 	/**
@@ -270,15 +700,49 @@ public class Game {
 	 * @return True if undo was possible.
 	 */
 	public boolean doUndo(){
-		if(getAvailUndo() > 0 && lastStates.size() > 0){
+		EngineMetrics.start(EngineMetrics.Operation.UNDO);
+		EngineEvents.Undo event = null;
+		if(EngineEvents.enabled){
+			event = new EngineEvents.Undo();
+			event.begin();
+		}
+		boolean undone = undo();
+		EngineMetrics.stop(EngineMetrics.Operation.UNDO);
+		if(event != null && event.shouldCommit()){
+			event.size = size;
+			event.successful = undone;
+			event.undosLeft = numUndos;
+			event.commit();
+		}
+		return undone;
+	}
+	
+	/**
+	 * Implementation of doUndo, without metrics
+	 */
+	private boolean undo(){
+		if(getAvailUndo() > 0 && !journal.isEmpty()){
+			
+			UndoJournal.Step step = journal.pop(); //take last step from the journal and revert it
+			for(int i = step.getChangeCount() - 1; i >= 0; i--) { //replay the cell changes in reverse
+				int cell = step.getCell(i);
+				setCell(cell / size, cell % size, step.getOldColor(i));
+			}
+			step.copyNextBlocks(nextBlocks);
+			rehashQueue();
+			score = step.getScore();
+			linesLeft = step.getLinesLeft();
+			level = step.getLevel();
 			
-			lastStates.remove(lastStates.size() - 1).restore(); //take last state from the stack and restore it
 			numUndos--;
+			journal.setCapacity(numUndos);
 			
-			//Reset value for pathfinding cache, so that we are sure we recalculate the pathes/costs
-			lastSrc = null;
+			if(replayLog != null) {
+				replayLog.recordUndo();
+			}
 			
-			emitUpdateEvent();
+			publishSnapshot();
+			emitUpdateEvent(GameEvent.Type.UNDO);
 			return true;
 		}
 		return false;
@@ -286,12 +750,14 @@ public class Game {
 	
 	/**
 	 * Saves the current game state/step
+	 * Starts a new step in the undo journal. All field changes until the end of nextStep will be recorded.
+	 * Within a batch (see doMoves), only the first move starts a step.
 	 */
 	private void saveStep() {
-		lastStates.add(new State()); //add a new State Object (which will be initialized to the current game state) to the backup list
-		
-		//Reset value for pathfinding cache, so that we are sure we recalculate the pathes/costs
-		lastSrc = null;
+		if(batchDepth > 0 && journal.isRecording()) {
+			return; //the step of the batch is already recorded
+		}
+		journal.begin(nextBlocks, score, linesLeft, level);
 	}
 	
 	/**
@@ -303,34 +769,155 @@ public class Game {
 	 * @return True if freemove was possible.
 	 */
 	public boolean doFreeMove(Point src, Point dst){
+		return doFreeMove(cellOf(src), cellOf(dst));
+	}
+	
+	/**
+	 * Move a block from src to dst and jump over walls.
+	 * Only possible if availableFreeMoves()>0
+	 * 
+	 * @param src source block position, packed as x*size+y
+	 * @param dst destination position, packed as x*size+y
+	 * @return True if freemove was possible.
+	 */
+	public boolean doFreeMove(int src, int dst){
+		EngineMetrics.start(EngineMetrics.Operation.MOVE);
+		EngineEvents.Move event = null;
+		if(EngineEvents.enabled){
+			event = new EngineEvents.Move();
+			event.begin();
+		}
+		boolean moved = freeMove(src, dst);
+		EngineMetrics.stop(EngineMetrics.Operation.MOVE);
+		if(event != null){
+			commitMoveEvent(event, src, dst, true, moved);
+		}
+		return moved;
+	}
+	
+	/**
+	 * Implementation of doFreeMove, without metrics
+	 */
+	private boolean freeMove(int src, int dst){
 		//move without path checking
 		if(getAvailFreeMoves() <= 0 ) {
 			return false;
 		}
 		
-		if(field[src.x][src.y]==0) {
+		if(!isCell(src) || !isCell(dst) || src == dst) {
 			return false;
 		}
+		int srcX = src / size, srcY = src % size;
+		int dstX = dst / size, dstY = dst % size;
+		if(field[srcX][srcY] == 0 || field[dstX][dstY] != 0) {
+			return false; //like move(): a block can only be moved onto an empty cell
+		}
 		
 		saveStep();
 		
-		field[dst.x][dst.y] = field[src.x][src.y];
-		field[src.x][src.y] = 0;
+		setCell(dstX, dstY, field[srcX][srcY]);
+		setCell(srcX, srcY, 0);
 		
 		freeMoves--;
 		
-		nextStep(dst);
+		if(replayLog != null && batchDepth == 0) {
+			replayLog.recordMove(src, dst, true);
+		}
+		
+		nextStep(dstX, dstY);
 		
 		return true;
 	}
 	
+	/**
+	 * Replaces the blocks on the field with the given ones, without checking for lines and without an undo step.
+	 * Used by benchmarks to set up synthetic boards.
+	 * 
+	 * @param newField field of the current size
+	 */
+	void loadField(final int[][] newField) {
+		for(int x=0; x<size; x++) {
+			for(int y=0; y<size; y++) {
+				setCell(x, y, newField[x][y]);
+			}
+		}
+	}
+	
+	/**
+	 * Publishes the current state as new snapshot, unless no snapshot has been requested yet (see getSnapshot).
+	 */
+	private void publishSnapshot() {
+		if(snapshot.get() != null) {
+			takeSnapshot();
+		}
+	}
+	
+	/**
+	 * Takes and publishes a snapshot of the current state. Only the rows that changed since the last snapshot are copied.
+	 */
+	private BoardSnapshot takeSnapshot() {
+		BoardSnapshot s = new BoardSnapshot(snapshot.get(), this, dirtyRows);
+		snapshot.set(s);
+		Arrays.fill(dirtyRows, false);
+		return s;
+	}
+	
+	/**
+	 * Recalculates the hash of nextBlocks. Every block shifts its position when the first one is placed,
+	 *  so the queue (at most a handful of entries) is rehashed as a whole after each change.
+	 */
+	private void rehashQueue() {
+		long hash = 0;
+		for(int i = 0; i < nextBlocks.size(); i++) {
+			hash ^= Zobrist.queueKey(i, nextBlocks.get(i));
+		}
+		if(events != null && hash != queueHash) events.nextBlocksChanged();
+		queueHash = hash;
+	}
+	
+	/**
+	 * Places a block on the field (or clears the position) and keeps all representations of the field in sync.
+	 * Every change to the field has to go through this method.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param color color of the block, 0 clears the position
+	 */
+	private void setCell(int x, int y, int color) {
+		int old = field[x][y];
+		if(old == color) {
+			return;
+		}
+		journal.record(x * size + y, old);
+		generation++;
+		field[x][y] = color;
+		board.set(x, y, color);
+		dirtyRows[x] = true;
+		if(events != null) events.cellChanged(x * size + y);
+		
+		if(old != 0) fieldHash ^= Zobrist.cellKey(x * size + y, old);
+		if(color != 0) fieldHash ^= Zobrist.cellKey(x * size + y, color);
+		
+		if(old == 0) {
+			freeCells.remove(x * size + y);
+			regions.cellFilled(x, y);
+			mobility.cellFilled(x, y);
+		} else if(color == 0) {
+			freeCells.add(x * size + y);
+			regions.cellFreed(x, y);
+			mobility.cellFreed(x, y);
+		}
+	}
+	
 	/**
 	 * Resets the game. The game will restart
 	 * 
 	 */
 	public void reset(int size){
-		this.size = size;
-		this.freeBlocks = size * size;
+		initField(size);
+		if(replayLog != null) {
+			replayLog.recordReset(size);
+		}
 		
 		// Initialize new blocks and oldMove list
 		nextBlocks = new ArrayList<Integer>();
@@ -338,44 +925,150 @@ public class Game {
 		nextBlocks.add(2);
 		nextBlocks.add(3);
 		
-		// Initialize field, level and score
-		field = new int[size][size];
-
-		
-		//undo stuff
-		lastStates = new ArrayList<State>();
-		
+		// Initialize level and score
 		level = 1;
 		score = 0;
 		numUndos = 2;
+		
+		//undo stuff
+		journal.setCapacity(numUndos);
 		freeMoves = 0;
 		linesLeft=linesPerLevel;
 		
 		// Populate game field
 		this.populateField();
 		
-		emitUpdateEvent();
+		publishSnapshot();
+		emitUpdateEvent(GameEvent.Type.RESET);
+	}
+	
+	/**
+	 * Creates an empty field of the given size, together with all helper structures that depend on the size
+	 * 
+	 * @param size
+	 * @throws IllegalArgumentException if the size is not within 1..maxSize
+	 */
+	private void initField(int size){
+		if(size < 1 || size > maxSize){
+			throw new IllegalArgumentException("Invalid game size " + size);
+		}
+		this.size = size;
+		this.freeCells = new FreeCellSet(size);
+		this.lines = LineTable.forSize(size);
+		
+		field = new int[size][size];
+		board = new BitBoard(size, numberOfColors);
+		dirtyRows = new boolean[size];
+		Arrays.fill(dirtyRows, true);
+		if(events != null) events.resize(size);
+		if(size >= largeBoardSize) {
+			regions = new RegionIndex(field, size, new ParallelRegionLabeler(field, size));
+		} else {
+			regions = new RegionIndex(field, size);
+		}
+		mobility = new MobilityIndex(field, size);
+		journal = new UndoJournal(0);
+		fieldHash = 0;
+		generation++;
+	}
+	
+	/**
+	 * Returns an independent copy of the current game state, without listeners and without undo history.
+	 * Used to simulate moves (e.g. by the HintEngine).
+	 * 
+	 * @param seed seed for the random number generator of the copy, which decides where new blocks are placed
+	 * @return
+	 */
+	public Game copy(long seed){
+		return new Game(this, new GameRandom(seed));
+	}
+	
+	/**
+	 * Returns the state of the random number generator, which decides where the next blocks are placed
+	 * @return
+	 */
+	long getRandomState(){
+		return rand.getState();
+	}
+	
+	/**
+	 * Returns the free positions (x*size+y) in the order in which they are drawn when new blocks are placed
+	 * @return
+	 */
+	int[] getFreeCellOrder(){
+		int[] order = new int[freeCells.size()];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = freeCells.get(i);
+		}
+		return order;
+	}
+	
+	/**
+	 * Replaces the whole game state, e.g. with a state read by GameCodec.
+	 * The undo history is cleared and the game is no longer recorded. Listeners receive a RESET event.
+	 * 
+	 * @param size
+	 * @param newField field of the given size
+	 * @param next colors which will be placed in the next move
+	 * @param score
+	 * @param level
+	 * @param linesLeft
+	 * @param undos number of undos left
+	 * @param freeMoves number of freemoves left
+	 * @param randomState state of the random number generator, see getRandomState
+	 * @param freeOrder order of the free positions, see getFreeCellOrder
+	 * @throws IllegalArgumentException if freeOrder does not match the free positions of newField
+	 */
+	void restore(int size, final int[][] newField, List<Integer> next, int score, int level, int linesLeft,
+			int undos, int freeMoves, long randomState, int[] freeOrder){
+		initField(size);
+		loadField(newField);
+		freeCells.setOrder(freeOrder);
+		
+		nextBlocks = new ArrayList<Integer>(next);
+		rehashQueue();
+		this.score = score;
+		this.level = level;
+		this.linesLeft = linesLeft;
+		this.numUndos = undos;
+		this.freeMoves = freeMoves;
+		journal.setCapacity(numUndos);
+		rand.setState(randomState);
+		replayLog = null;
+		
+		publishSnapshot();
+		emitUpdateEvent(GameEvent.Type.RESET);
 	}
 	
 	/**
 	 * Calculates the next game step. This method will either call populateField, or it will cleanup blocks 
 	 *
-	 * @param lastPoint
+	 * @param x position of the block that was moved
+	 * @param y
 	 */
-	private void nextStep(final Point lastPoint){
-		if(!checkRemoveBlocks(lastPoint)){
+	private void nextStep(int x, int y){
+		if(!checkRemoveBlocks(x, y)){
 			populateField(); //add new blocks	
 		} else {
 			linesLeft--;
 			if(linesLeft==0){
 				level++;
 				numUndos++;
+				if(events != null) events.levelUp();
 				linesLeft=linesPerLevel;
 			
 			}
 		}
 		
-		emitUpdateEvent();
+		if(batchDepth > 0) {
+			return; //doMoves finishes the step after the last move of the batch
+		}
+		
+		journal.end();
+		journal.setCapacity(numUndos);
+		
+		publishSnapshot();
+		emitUpdateEvent(GameEvent.Type.STEP);
 
 	}
 	
@@ -383,40 +1076,31 @@ public class Game {
 	 * Collision detection and block removal if there are 4 or more blocks in a row in any direction.
 	 * Also increases the score if necessary
 	 * 
-	 * @param lastPoint point around which the checks should be made
+	 * @param lastX position around which the checks should be made
+	 * @param lastY
 	 * @return True if any blocks got removed
 	 */
-	private boolean checkRemoveBlocks(final Point lastPoint){
+	boolean checkRemoveBlocks(int lastX, int lastY){
+		EngineMetrics.start(EngineMetrics.Operation.LINE_CHECK);
 		
-		//Offset to reach the neighbors
-		final Point[] offsets = { 
-				new Point(0,1),	 // right
-				new Point(0,-1), // left
-				new Point(1,0),	 // bottom
-				new Point(-1,0), // top
-				new Point(1,1),  // bottom right
-				new Point(-1,-1),// top left
-				new Point(-1,1), // bottom left
-				new Point(1,-1)  // top right
-		};
-		
-		int matches[] = new int[8]; //number of blocks of the same color in each direction
-		int color = field[lastPoint.x][lastPoint.y]; //current block color
+		final int[] offsetX = LineTable.offsetX; //Offset to reach the neighbors
+		final int[] offsetY = LineTable.offsetY;
+		final int[] matches = this.matches; //number of blocks of the same color in each direction
+		int color = field[lastX][lastY]; //current block color
 		
 		//Count the matches per direction
 		for(int i = 0; i < 8; i++){ //for every direction
-			Point offset = offsets[i];
-			Point current = new Point(lastPoint);
+			int x = lastX;
+			int y = lastY;
+			int length = lines.getRayLength(lastX, lastY, i); //number of positions until the border
 			
 			int matchcount = 0;		
-			while(true){ //iterate until one of the conditions below fail
-				current.translate(offset.x, offset.y); //walk 1 step in the given direction
-				
-				//Abort if out of bounds
-				if(current.x < 0 || current.x >= size || current.y < 0 || current.y >= size) break;
+			while(matchcount < length){ //iterate until we reach the border or the color does not match
+				x += offsetX[i]; //walk 1 step in the given direction
+				y += offsetY[i];
 				
 				//Abort if block there has not the correct color
-				if(field[current.x][current.y] != color) break;
+				if(field[x][y] != color) break;
 				
 				//Else: we found one more block that matches an we can continue the loop to seach for more
 				matchcount++;
@@ -434,13 +1118,14 @@ public class Game {
 			if(totalmatches >= 4){ //4 or more blocks => Block-group matched!
 				distinctmatches++;
 				for(int j = 0; j < 2; j++){ //now remove the blocks
-					Point offset = offsets[j+i*2];
-					Point current = new Point(lastPoint);
+					int d = j+i*2;
+					int x = lastX;
+					int y = lastY;
 
-					for(int k = 0; k < matches[j+i*2]; k++){ //for both directions in this direction pair
-						current.translate(offset.x, offset.y); //go one step in the direction
-						field[current.x][current.y] = 0;
-						freeBlocks++;
+					for(int k = 0; k < matches[d]; k++){ //for both directions in this direction pair
+						x += offsetX[d]; //go one step in the direction
+						y += offsetY[d];
+						setCell(x, y, 0);
 					}
 				}
 			} else { //not enough matches in that direction pair => reset matchcount
@@ -450,24 +1135,37 @@ public class Game {
 		}
 		
 		if(distinctmatches > 0){ //match in at least on direction (pair)
-			field[lastPoint.x][lastPoint.y] = 0; //remove current block
-			freeBlocks++;
+			setCell(lastX, lastY, 0); //remove current block
 			
 			if(distinctmatches > 1){
 				freeMoves++;
 			}
+			if(events != null) events.linesCleared(distinctmatches);
 			
 			int sum = 0;
-			for( Integer i : matches ) sum += i; //Sum up the number of blocks which participate in a match
+			for(int i = 0; i < 8; i++) sum += matches[i]; //Sum up the number of blocks which participate in a match
 			//(the other directions matches have been set to 0)
 				
 			score += (1 + distinctmatches * sum); 
 			
-			System.out.println("Score: " + score);
+			if(EngineEvents.enabled){
+				EngineEvents.LineClear event = new EngineEvents.LineClear();
+				if(event.shouldCommit()){
+					event.size = size;
+					event.cell = lastX * size + lastY;
+					event.color = color;
+					event.lines = distinctmatches;
+					event.blocks = 1 + sum;
+					event.points = 1 + distinctmatches * sum;
+					event.commit();
+				}
+			}
 			
+			EngineMetrics.stop(EngineMetrics.Operation.LINE_CHECK);
 			return true;
 		}
 		
+		EngineMetrics.stop(EngineMetrics.Operation.LINE_CHECK);
 		return false;
 	
 	}
@@ -476,19 +1174,24 @@ public class Game {
 	 * Adds n new blocks to random positions on the field, according to the level number.
 	 * 
 	 */
-	private void populateField(){
+	void populateField(){
+		EngineMetrics.start(EngineMetrics.Operation.POPULATE);
+		EngineEvents.Spawn event = null;
+		if(EngineEvents.enabled){
+			event = new EngineEvents.Spawn();
+			event.begin();
+		}
+		int placed = 0;
 		
 		// while there are blocks left in nextBlocks
-		while((nextBlocks.size() > 0) && (freeBlocks > 0)){
-			int x = rand.nextInt(size); // get random x position
-			int y = rand.nextInt(size); // get random y position
+		while((nextBlocks.size() > 0) && (freeCells.size() > 0)){
+			placed++;
+			int cell = freeCells.get(rand.nextInt(freeCells.size())); // get a random free position
+			int x = cell / size;
+			int y = cell % size;
 			
-			// if the position is free
-			if(field[x][y] == 0){
-				field[x][y] = nextBlocks.remove(0); // fill with the first element of nextBlocks
-				freeBlocks--;
-				checkRemoveBlocks(new Point(x,y));
-			}
+			setCell(x, y, nextBlocks.remove(0)); // fill with the first element of nextBlocks
+			checkRemoveBlocks(x, y);
 		}
 		
 		int blocksToAdd = 0;
@@ -502,5 +1205,14 @@ public class Game {
 		for(int i = 0; i < blocksToAdd; i++){
 			nextBlocks.add(1 + rand.nextInt(numberOfColors));	
 		}
+		rehashQueue();
+		EngineMetrics.stop(EngineMetrics.Operation.POPULATE);
+		if(event != null && event.shouldCommit()){
+			event.size = size;
+			event.placed = placed;
+			event.freeCells = freeCells.size();
+			event.level = level;
+			event.commit();
+		}
 	}
 }
@@ -0,0 +1,208 @@
+package ch.bfh.sevennotseven;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the complete state of a game: field, next blocks, score, level, lines left,
+ *  undos, free moves and the state of the random number generator. A decoded game continues exactly like the
+ *  encoded one. The undo history and the replay log are not part of the encoding.
+ *
+ * Format (big endian): magic (4 bytes), version (1 byte), size (2 bytes), score, level, linesLeft, undos,
+ *  freeMoves (4 bytes each), random state (8 bytes), number of next blocks (1 byte), one byte per next block,
+ *  the field with 4 bits per position in the order x*size+y, then the free positions in the order in which
+ *  new blocks are drawn from them (2 bytes each, or 4 bytes if size*size > 65536).
+ *
+ */
+public final class GameCodec {
+
+	static final int magic = 0x374E4753; //"7NGS"
+	static final byte version = 1;
+	static final int maxNextBlocks = 255;
+
+	private static final int headerBytes = 4 + 1 + 2 + 5 * 4 + 8 + 1;
+
+	private GameCodec() {
+	}
+
+	/**
+	 * Returns the number of bytes needed to encode a game
+	 * @param game
+	 * @return
+	 */
+	public static int encodedSize(Game game) {
+		return encodedSize(game.getSize(), game.getNextBlocks().size(), game.countFreeCells());
+	}
+
+	/**
+	 * Returns the maximum number of bytes needed to encode any game of the given size
+	 * @param size game size
+	 * @return
+	 */
+	public static int maxEncodedSize(int size) {
+		return encodedSize(size, maxNextBlocks, size * size);
+	}
+
+	private static int encodedSize(int size, int nextBlocks, int freeCells) {
+		return headerBytes + nextBlocks + (size * size + 1) / 2 + freeCells * cellBytes(size);
+	}
+
+	/**
+	 * Returns the number of bytes of an encoded position
+	 */
+	private static int cellBytes(int size) {
+		return size * size > 0x10000 ? 4 : 2;
+	}
+
+	/**
+	 * Writes the state of the game to the buffer, starting at its position
+	 *
+	 * @param game
+	 * @param out target buffer. Its position is advanced by the number of written bytes
+	 * @throws java.nio.BufferOverflowException if the buffer is too small (see encodedSize)
+	 * @throws IllegalArgumentException if the game can not be encoded
+	 */
+	public static void encode(Game game, ByteBuffer out) {
+		final int size = game.getSize();
+		final List<Integer> next = game.getNextBlocks();
+		if(size > 0xFFFF || next.size() > maxNextBlocks) {
+			throw new IllegalArgumentException("Game can not be encoded");
+		}
+
+		out.putInt(magic);
+		out.put(version);
+		out.putShort((short) size);
+		out.putInt(game.getScore());
+		out.putInt(game.getLevel());
+		out.putInt(game.getLinesLeft());
+		out.putInt(game.getAvailUndo());
+		out.putInt(game.getAvailFreeMoves());
+		out.putLong(game.getRandomState());
+		out.put((byte) next.size());
+		for(int i = 0; i < next.size(); i++) {
+			out.put(next.get(i).byteValue());
+		}
+
+		final int[][] field = game.getField();
+		int cells = size * size;
+		for(int i = 0; i < cells; i += 2) {
+			int lo = field[i / size][i % size];
+			int hi = i + 1 < cells ? field[(i + 1) / size][(i + 1) % size] : 0;
+			out.put((byte) (lo | (hi << 4)));
+		}
+
+		int[] order = game.getFreeCellOrder();
+		for(int i = 0; i < order.length; i++) {
+			if(cellBytes(size) == 2) {
+				out.putShort((short) order[i]);
+			} else {
+				out.putInt(order[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads a game from the buffer, starting at its position
+	 *
+	 * @param in source buffer. Its position is advanced by the number of read bytes
+	 * @return the decoded game
+	 * @throws IllegalArgumentException if the buffer does not contain a valid encoding
+	 */
+	public static Game decode(ByteBuffer in) {
+		Game game = new Game(checkSize(peekSize(in)), 0L);
+		decodeInto(in, game);
+		return game;
+	}
+
+	/**
+	 * Reads a game from the buffer and replaces the state of an existing game with it.
+	 * The listeners of the game receive a RESET event.
+	 *
+	 * @param in source buffer. Its position is advanced by the number of read bytes
+	 * @param game game to overwrite
+	 * @throws IllegalArgumentException if the buffer does not contain a valid encoding
+	 */
+	public static void decodeInto(ByteBuffer in, Game game) {
+		try {
+			if(in.getInt() != magic || in.get() != version) {
+				throw new IllegalArgumentException("Not an encoded game");
+			}
+			int size = checkSize(in.getShort() & 0xFFFF);
+			int score = in.getInt();
+			int level = in.getInt();
+			int linesLeft = in.getInt();
+			int undos = in.getInt();
+			int freeMoves = in.getInt();
+			long randomState = in.getLong();
+			int numNext = in.get() & 0xFF;
+			List<Integer> next = new ArrayList<Integer>(numNext);
+			for(int i = 0; i < numNext; i++) {
+				int color = checkColor(in.get());
+				if(color == 0) {
+					throw new IllegalArgumentException("Invalid next block");
+				}
+				next.add(color);
+			}
+			if(level < 1 || linesLeft < 1 || undos < 0 || freeMoves < 0 || score < 0) {
+				throw new IllegalArgumentException("Invalid game state");
+			}
+
+			int[][] field = new int[size][size];
+			int cells = size * size;
+			int free = 0;
+			for(int i = 0; i < cells; i += 2) {
+				int b = in.get();
+				field[i / size][i % size] = checkColor(b & 0xF);
+				if(i + 1 < cells) {
+					field[(i + 1) / size][(i + 1) % size] = checkColor((b >>> 4) & 0xF);
+				}
+			}
+			for(int x = 0; x < size; x++) {
+				for(int y = 0; y < size; y++) {
+					if(field[x][y] == 0) free++;
+				}
+			}
+
+			int[] order = new int[free];
+			boolean[] seen = new boolean[cells];
+			for(int i = 0; i < free; i++) {
+				int cell = cellBytes(size) == 2 ? in.getShort() & 0xFFFF : in.getInt();
+				if(cell < 0 || cell >= cells || field[cell / size][cell % size] != 0 || seen[cell]) {
+					throw new IllegalArgumentException("Invalid free position " + cell);
+				}
+				seen[cell] = true;
+				order[i] = cell;
+			}
+
+			game.restore(size, field, next, score, level, linesLeft, undos, freeMoves, randomState, order);
+		} catch(BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated game encoding");
+		}
+	}
+
+	/**
+	 * Returns the game size of the encoding at the position of the buffer, without moving the position
+	 */
+	private static int peekSize(ByteBuffer in) {
+		if(in.remaining() < 7) {
+			throw new IllegalArgumentException("Truncated game encoding");
+		}
+		return in.getShort(in.position() + 5) & 0xFFFF;
+	}
+
+	private static int checkSize(int size) {
+		if(size < 1 || size > Game.maxSize) {
+			throw new IllegalArgumentException("Invalid game size " + size);
+		}
+		return size;
+	}
+
+	private static int checkColor(int color) {
+		if(color < 0 || color > Game.numberOfColors) {
+			throw new IllegalArgumentException("Invalid color " + color);
+		}
+		return color;
+	}
+}
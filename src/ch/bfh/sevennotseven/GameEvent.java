@@ -0,0 +1,174 @@
+package ch.bfh.sevennotseven;
+
+import java.util.Arrays;
+
+/**
+ * Describes what changed during one step of a game (a move with all its consequences, an undo or a reset).
+ * All changes of a step are coalesced into one event, which is dispatched once at the end of the step.
+ * Events are immutable and can be handed to other threads.
+ *
+ */
+public final class GameEvent {
+
+	/**
+	 * Kind of the step that caused the event
+	 *
+	 */
+	public enum Type {
+		STEP, //a move or free move, including the cleared lines and the new blocks
+		UNDO, //the last step was undone
+		RESET //the game was restarted. The whole field has changed and no cells are listed
+	}
+
+	private final Type type;
+	private final int[] changedCells; //packed (x*size+y) positions whose color changed
+	private final int linesCleared;
+	private final int combo;
+	private final boolean levelUp;
+	private final boolean nextBlocksChanged;
+	private final BoardSnapshot snapshot;
+
+	private GameEvent(Type type, int[] changedCells, int linesCleared, int combo, boolean levelUp,
+			boolean nextBlocksChanged, BoardSnapshot snapshot) {
+		this.type = type;
+		this.changedCells = changedCells;
+		this.linesCleared = linesCleared;
+		this.combo = combo;
+		this.levelUp = levelUp;
+		this.nextBlocksChanged = nextBlocksChanged;
+		this.snapshot = snapshot;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the number of positions that were modified during the step.
+	 * A position that was filled and cleared again within the step is listed as well.
+	 * @return
+	 */
+	public int getChangedCellCount() {
+		return changedCells.length;
+	}
+
+	/**
+	 * Returns a changed position, packed as x*size+y
+	 * @param i index, 0..getChangedCellCount()-1
+	 * @return
+	 */
+	public int getChangedCell(int i) {
+		return changedCells[i];
+	}
+
+	/**
+	 * Returns the number of lines (4 or more equal blocks in one direction) that were cleared during the step
+	 * @return
+	 */
+	public int getLinesCleared() {
+		return linesCleared;
+	}
+
+	/**
+	 * Returns the largest number of lines that were cleared at once by a single block.
+	 * A combo of 2 or more earns a free move.
+	 * @return
+	 */
+	public int getCombo() {
+		return combo;
+	}
+
+	/**
+	 * Returns whether or not the player reached the next level during the step
+	 * @return
+	 */
+	public boolean isLevelUp() {
+		return levelUp;
+	}
+
+	/**
+	 * Returns whether or not the blocks that will be placed next have changed
+	 * @return
+	 */
+	public boolean isNextBlocksChanged() {
+		return nextBlocksChanged;
+	}
+
+	/**
+	 * Returns the state of the game at the end of the step
+	 * @return
+	 */
+	public BoardSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Collects the changes of the current step
+	 *
+	 */
+	static class Builder {
+
+		private int[] cells; //changed cells, in 0..count-1
+		private boolean[] marked; //whether or not a cell is already in cells
+		private int count;
+		private int linesCleared;
+		private int combo;
+		private boolean levelUp;
+		private boolean nextBlocksChanged;
+
+		Builder(int size) {
+			resize(size);
+		}
+
+		/**
+		 * Discards all changes and adapts the builder to a new game size
+		 */
+		void resize(int size) {
+			cells = new int[size * size];
+			marked = new boolean[size * size];
+			count = 0;
+			clear();
+		}
+
+		void cellChanged(int cell) {
+			if(!marked[cell]) {
+				marked[cell] = true;
+				cells[count++] = cell;
+			}
+		}
+
+		void linesCleared(int lines) {
+			linesCleared += lines;
+			combo = Math.max(combo, lines);
+		}
+
+		void levelUp() {
+			levelUp = true;
+		}
+
+		void nextBlocksChanged() {
+			nextBlocksChanged = true;
+		}
+
+		/**
+		 * Creates the event of the current step and starts a new one
+		 */
+		GameEvent build(Type type, BoardSnapshot snapshot) {
+			int[] changed = type == Type.RESET ? new int[0] : Arrays.copyOf(cells, count);
+			GameEvent e = new GameEvent(type, changed, linesCleared, combo, levelUp, nextBlocksChanged, snapshot);
+			clear();
+			return e;
+		}
+
+		private void clear() {
+			for(int i = 0; i < count; i++) {
+				marked[cells[i]] = false;
+			}
+			count = 0;
+			linesCleared = 0;
+			combo = 0;
+			levelUp = false;
+			nextBlocksChanged = false;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package ch.bfh.sevennotseven;
+
+import java.util.Random;
+
+/**
+ * Random number generator of a game, whose state can be saved and restored.
+ * Produces exactly the same sequence as java.util.Random with the same seed (same linear congruential generator),
+ *  so seeded games and replay logs are not affected.
+ *
+ */
+public class GameRandom extends Random {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final long multiplier = 0x5DEECE66DL;
+	private static final long addend = 0xBL;
+	private static final long mask = (1L << 48) - 1;
+
+	private long state; //48 bit state of the generator
+
+	/**
+	 * Creates a generator with a random seed
+	 */
+	public GameRandom() {
+		this(new Random().nextLong());
+	}
+
+	/**
+	 * Creates a generator with the given seed
+	 * @param seed
+	 */
+	public GameRandom(long seed) {
+		super(seed);
+		setSeed(seed); //not every Random(long) constructor calls setSeed for subclasses
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		state = (seed ^ multiplier) & mask;
+	}
+
+	@Override
+	protected int next(int bits) {
+		state = (state * multiplier + addend) & mask;
+		return (int) (state >>> (48 - bits));
+	}
+
+	/**
+	 * Returns the internal state of the generator
+	 * @return
+	 */
+	public long getState() {
+		return state;
+	}
+
+	/**
+	 * Restores a state returned by getState
+	 * @param state
+	 */
+	public void setState(long state) {
+		this.state = state & mask;
+	}
+}
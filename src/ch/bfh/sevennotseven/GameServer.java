@@ -0,0 +1,502 @@
+package ch.bfh.sevennotseven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-session game server with a line based TCP protocol.
+ * Every connection is handled by its own thread. A connection works on one session at a time, sessions can be
+ *  shared by several connections and all commands on a session are serialised. Idle sessions are evicted.
+ * If a SessionStore is given, every session is checkpointed to a slot of the store after every command that changes it,
+ *  and the stored sessions are restored when the server starts. Slots of evicted sessions are reused.
+ *  While all slots are taken, new sessions are not checkpointed until a slot is freed.
+ *
+ * Commands (one per line, answers start with "OK" or "ERR"):
+ *  new [size]            creates a new session and attaches to it. Answer: OK id
+ *  attach id             attaches to an existing session
+ *  move x1 y1 x2 y2      moves a block
+ *  free x1 y1 x2 y2      free move of a block
+ *  batch (move|free x1 y1 x2 y2)...
+ *                        applies several moves as one step, stops at the first illegal move. Answer: OK applied score
+ *  undo                  undoes the last move
+ *  reset [size]          restarts the game
+ *  state                 returns score, level, lines left, free moves, undos, next blocks and the field (one row per x).
+ *                        Reads the last published snapshot and does not wait for commands running on the session
+ *  stats                 returns the latency statistics per command
+ *  quit                  closes the connection
+ *
+ */
+public class GameServer {
+
+	static final int defaultSize = 7;
+	static final long idleTimeoutMillis = 10 * 60 * 1000; //sessions without a command for this long are evicted
+	static final Charset charset = Charset.forName("UTF-8");
+	static final int maxStoredSize = 64; //largest game size clients can request, fits into the slots of the session store
+	static final long stopTimeoutMillis = 5000; //time stop() waits for running commands
+	static final Set<String> commands = new HashSet<String>(Arrays.asList(
+			"new", "attach", "move", "free", "batch", "undo", "reset", "state", "stats")); //commands with latency statistics
+
+	/**
+	 * A game session. All access to the game must hold the session lock.
+	 *
+	 */
+	static class Session {
+		final int id;
+		final Game game;
+		volatile long lastAccess;
+		int slot = -1; //slot of the session store, -1 if none. Guarded by the session lock
+
+		Session(int id, Game game) {
+			this.id = id;
+			this.game = game;
+			this.lastAccess = System.currentTimeMillis();
+			game.getSnapshot(); //start publishing snapshots, so that state can read them without the session lock
+		}
+	}
+
+	/**
+	 * Latency statistics of one command
+	 *
+	 */
+	static class Latency {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong totalNanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+
+		void record(long nanos) {
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max;
+			while(nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+				//retry
+			}
+		}
+
+		@Override
+		public String toString() {
+			long n = count.get();
+			return n + " calls, avg " + (n == 0 ? 0 : totalNanos.get() / n / 1000) + " us, max " + maxNanos.get() / 1000 + " us";
+		}
+	}
+
+	private final ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<Integer, Session>();
+	private final ConcurrentHashMap<String, Latency> latencies = new ConcurrentHashMap<String, Latency>();
+	private final AtomicInteger nextId = new AtomicInteger(1);
+	private final ExecutorService connections = Executors.newCachedThreadPool(); //one thread per connection
+	private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>()); //open connections
+	private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor();
+	private final long idleTimeout;
+	private final SessionStore store; //checkpoints of the sessions, or null
+	private final ConcurrentLinkedQueue<Integer> freeSlots = new ConcurrentLinkedQueue<Integer>(); //unused slots of the store
+	private ServerSocket serverSocket;
+	private volatile boolean stopped;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param idleTimeout time in milliseconds after which idle sessions are evicted
+	 */
+	public GameServer(long idleTimeout) {
+		this(idleTimeout, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param idleTimeout time in milliseconds after which idle sessions are evicted
+	 * @param store store to checkpoint the sessions to, or null
+	 */
+	public GameServer(long idleTimeout, SessionStore store) {
+		this.idleTimeout = idleTimeout;
+		this.store = store;
+	}
+
+	/**
+	 * Starts the server on the loopback interface
+	 *
+	 * @param port port to listen on, 0 for a free port
+	 * @return the port the server listens on
+	 * @throws IOException
+	 */
+	public int start(int port) throws IOException {
+		restoreSessions();
+		serverSocket = new ServerSocket(port, 256, InetAddress.getLoopbackAddress());
+		connections.execute(new Runnable() {
+			@Override
+			public void run() {
+				acceptLoop();
+			}
+		});
+		long period = Math.max(1, idleTimeout / 4);
+		evictor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				evictIdleSessions();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Stops the server and closes all connections. Waits for the commands that are running, so the store is
+	 *  flushed after their checkpoints.
+	 */
+	public void stop() {
+		stopped = true;
+		try {
+			serverSocket.close();
+		} catch(IOException e) {
+			//ignore, we are shutting down
+		}
+		for(Socket socket : sockets) {
+			closeQuietly(socket); //unblocks the connection thread waiting in readLine
+		}
+		evictor.shutdownNow();
+		connections.shutdownNow();
+		try {
+			connections.awaitTermination(stopTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(store != null) {
+			store.flush();
+		}
+	}
+
+	/**
+	 * Returns the number of active sessions
+	 * @return
+	 */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * Returns the latency statistics per command
+	 * @return
+	 */
+	public Map<String, String> getLatencies() {
+		Map<String, String> res = new TreeMap<String, String>();
+		for(Map.Entry<String, Latency> e : latencies.entrySet()) {
+			res.put(e.getKey(), e.getValue().toString());
+		}
+		return res;
+	}
+
+	/**
+	 * Removes all sessions that have not been used within the idle timeout
+	 */
+	void evictIdleSessions() {
+		long limit = System.currentTimeMillis() - idleTimeout;
+		Iterator<Session> it = sessions.values().iterator();
+		while(it.hasNext()) {
+			Session session = it.next();
+			if(session.lastAccess < limit) {
+				it.remove();
+				//commands that hold the lock already will see that the session is gone and not checkpoint it again
+				synchronized(session) {
+					if(session.slot >= 0) {
+						store.clear(session.slot);
+						freeSlots.add(session.slot);
+						session.slot = -1;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads the sessions from the store
+	 */
+	private void restoreSessions() {
+		if(store == null) {
+			return;
+		}
+		for(int slot = 0; slot < store.getSlotCount(); slot++) {
+			int id = store.getId(slot);
+			try {
+				Game game = store.load(slot);
+				if(game == null) {
+					freeSlots.add(slot);
+				} else if(id < 1 || sessions.containsKey(id)) {
+					throw new IllegalArgumentException("invalid session id");
+				} else {
+					Session session = new Session(id, game);
+					session.slot = slot;
+					sessions.put(id, session);
+					nextId.set(Math.max(nextId.get(), id + 1));
+				}
+			} catch(IllegalArgumentException e) {
+				System.out.println("Dropping session " + id + " in slot " + slot + ": " + e.getMessage());
+				store.clear(slot);
+				freeSlots.add(slot);
+			}
+		}
+	}
+
+	/**
+	 * Writes the session to its slot of the store, taking a free slot if it has none yet. The caller holds the session lock.
+	 * Evicted sessions, sessions for which no slot is free, and sessions whose game is too large for a slot are not persisted.
+	 */
+	private void checkpoint(Session session) {
+		if(store == null || sessions.get(session.id) != session) {
+			return;
+		}
+		if(session.slot < 0) {
+			Integer slot = freeSlots.poll();
+			if(slot == null) {
+				return;
+			}
+			session.slot = slot;
+		}
+		try {
+			store.save(session.slot, session.id, session.game);
+		} catch(IllegalArgumentException e) {
+			store.clear(session.slot);
+		}
+	}
+
+	private void acceptLoop() {
+		while(!serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				sockets.add(socket);
+				if(stopped) {
+					closeQuietly(socket); //accepted while stop() closed the others
+					break;
+				}
+				try {
+					connections.execute(new Runnable() {
+						@Override
+						public void run() {
+							handleConnection(socket);
+						}
+					});
+				} catch(RejectedExecutionException e) {
+					closeQuietly(socket); //the server stopped in the meantime
+					break;
+				}
+			} catch(IOException e) {
+				if(!serverSocket.isClosed()) {
+					System.out.println("Accept failed: " + e.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads and answers the commands of one connection
+	 */
+	private void handleConnection(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), charset));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), charset), true);
+			Session session = null;
+			String line;
+			while((line = in.readLine()) != null) {
+				String[] args = line.trim().split("\\s+");
+				String command = args[0].toLowerCase();
+				if(command.equals("quit")) {
+					break;
+				}
+
+				long start = System.nanoTime();
+				String answer;
+				try {
+					if(command.equals("new")) {
+						int size = args.length > 1 ? Integer.parseInt(args[1]) : defaultSize;
+						checkSize(size);
+						session = new Session(nextId.getAndIncrement(), new Game(size));
+						sessions.put(session.id, session);
+						synchronized(session) {
+							checkpoint(session);
+							if(store != null && session.slot < 0) {
+								System.out.println("Session store full, session " + session.id + " is not checkpointed until a slot is freed");
+							}
+						}
+						answer = "OK " + session.id;
+					} else if(command.equals("attach")) {
+						session = sessions.get(Integer.parseInt(args[1]));
+						answer = session == null ? "ERR unknown session" : "OK " + session.id;
+					} else if(command.equals("stats")) {
+						answer = "OK " + getLatencies();
+					} else if(session == null || sessions.get(session.id) != session) {
+						session = null;
+						answer = "ERR no session";
+					} else if(command.equals("state")) {
+						session.lastAccess = System.currentTimeMillis();
+						answer = "OK " + state(session.game.getSnapshot());
+					} else {
+						session.lastAccess = System.currentTimeMillis();
+						synchronized(session) {
+							if(sessions.get(session.id) != session) {
+								answer = "ERR no session"; //evicted since the check above
+							} else {
+								answer = execute(session.game, command, args);
+								if(answer.startsWith("OK")) {
+									checkpoint(session);
+								}
+							}
+						}
+					}
+				} catch(NumberFormatException e) {
+					answer = "ERR invalid number";
+				} catch(ArrayIndexOutOfBoundsException e) {
+					answer = "ERR missing argument";
+				} catch(IllegalArgumentException e) {
+					answer = "ERR " + e.getMessage();
+				}
+				if(commands.contains(command)) {
+					latencyOf(command).record(System.nanoTime() - start);
+				}
+				out.println(answer);
+			}
+		} catch(IOException e) {
+			//connection lost
+		} finally {
+			sockets.remove(socket);
+			closeQuietly(socket);
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch(IOException e) {
+			//ignore
+		}
+	}
+
+	private Latency latencyOf(String command) {
+		Latency latency = latencies.get(command);
+		if(latency == null) {
+			Latency created = new Latency();
+			latency = latencies.putIfAbsent(command, created);
+			if(latency == null) latency = created;
+		}
+		return latency;
+	}
+
+	/**
+	 * Executes a game command. The caller holds the session lock.
+	 */
+	private String execute(Game game, String command, String[] args) {
+		if(command.equals("move") || command.equals("free")) {
+			int src = cell(game, args, 1);
+			int dst = cell(game, args, 3);
+			boolean ok = command.equals("move") ? game.doMove(src, dst) : game.doFreeMove(src, dst);
+			return ok ? "OK " + game.getScore() : "ERR illegal move";
+		} else if(command.equals("batch")) {
+			if(args.length < 6 || (args.length - 1) % 5 != 0) {
+				throw new IllegalArgumentException("batch needs one or more moves");
+			}
+			List<Move> moves = new ArrayList<Move>();
+			for(int i = 1; i < args.length; i += 5) {
+				if(!args[i].equals("move") && !args[i].equals("free")) {
+					throw new IllegalArgumentException("batch contains " + args[i]);
+				}
+				moves.add(new Move(cell(game, args, i + 1), cell(game, args, i + 3), game.getSize(), args[i].equals("free")));
+			}
+			int applied = game.doMoves(moves);
+			return applied > 0 ? "OK " + applied + " " + game.getScore() : "ERR illegal move";
+		} else if(command.equals("undo")) {
+			return game.doUndo() ? "OK" : "ERR no undo available";
+		} else if(command.equals("reset")) {
+			int size = args.length > 1 ? Integer.parseInt(args[1]) : game.getSize();
+			checkSize(size);
+			game.reset(size);
+			return "OK";
+		}
+		return "ERR unknown command";
+	}
+
+	/**
+	 * Formats a game state in one line
+	 */
+	private static String state(BoardSnapshot state) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("version=").append(state.getVersion());
+		sb.append(" score=").append(state.getScore());
+		sb.append(" level=").append(state.getLevel());
+		sb.append(" lines=").append(state.getLinesLeft());
+		sb.append(" free=").append(state.getAvailFreeMoves());
+		sb.append(" undo=").append(state.getAvailUndo());
+		sb.append(" next=");
+		List<Integer> next = state.getNextBlocks();
+		for(int i = 0; i < next.size(); i++) {
+			sb.append(next.get(i));
+		}
+		sb.append(" field=");
+		for(int x = 0; x < state.getSize(); x++) {
+			if(x > 0) sb.append('/');
+			for(int y = 0; y < state.getSize(); y++) {
+				sb.append(state.getColor(x, y));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses the position args[i],args[i+1] and returns it packed as x*size+y
+	 */
+	private static int cell(Game game, String[] args, int i) {
+		int x = Integer.parseInt(args[i]);
+		int y = Integer.parseInt(args[i + 1]);
+		if(x < 0 || y < 0 || x >= game.getSize() || y >= game.getSize()) {
+			throw new IllegalArgumentException("position out of range");
+		}
+		return x * game.getSize() + y;
+	}
+
+	private static void checkSize(int size) {
+		if(size < 4 || size > maxStoredSize) { //sizes come from clients, keep them small enough to be checkpointed
+			throw new IllegalArgumentException("invalid size");
+		}
+	}
+
+	/**
+	 * Main method
+	 * Arguments (all optional): port idleTimeoutSeconds storeFile storeSlots
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+		long timeout = args.length > 1 ? Long.parseLong(args[1]) * 1000 : idleTimeoutMillis;
+		SessionStore store = null;
+		if(args.length > 2) {
+			int slots = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+			store = new SessionStore(new File(args[2]), slots, maxStoredSize);
+		}
+		EngineMetrics.register();
+		GameServer server = new GameServer(timeout, store);
+		System.out.println("Listening on 127.0.0.1:" + server.start(port));
+	}
+}
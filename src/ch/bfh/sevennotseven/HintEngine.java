@@ -0,0 +1,344 @@
+package ch.bfh.sevennotseven;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Searches the best move for a game position.
+ * Every legal move is simulated on a copy of the game. Moves that clear a line are evaluated directly, for all other
+ *  moves the random placement of the next blocks is sampled (expectimax with chance nodes). Below the root only the
+ *  most promising moves are followed.
+ * The root moves are evaluated in parallel on a fork-join pool, with iterative deepening until the time budget is used up.
+ *  On large boards only the best rated root moves are searched, and the moves are only enumerated until the deadline.
+ *
+ */
+public class HintEngine {
+
+	static final int samples = 4; //number of sampled block placements per chance node
+	static final int innerMoves = 8; //number of moves followed below the root
+	static final int rootMoves = 256; //maximum number of root moves
+	static final int maxDepth = 4; //maximum search depth (number of own moves)
+	static final double scoreWeight = 10; //weight of the score in the position evaluation
+	static final double freeCellWeight = 1; //weight of an empty position
+	static final double neighbourWeight = 0.5; //weight of two neighbouring blocks of the same color
+	static final double regionWeight = 2; //penalty per additional empty region
+	static final double deadPenalty = 1000; //penalty for positions without any move
+	static final int cacheSize = 1 << 16; //number of position values kept in the cache
+	private static final int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}}; //line directions, see runLength
+
+	private static HintEngine defaultEngine; //engine used by Game.getHint
+
+	/**
+	 * Returns the shared engine that evaluates on all cores
+	 * @return
+	 */
+	static synchronized HintEngine getDefault() {
+		if(defaultEngine == null) {
+			defaultEngine = new HintEngine(new ForkJoinPool());
+		}
+		return defaultEngine;
+	}
+
+	/**
+	 * A move together with its static rating (length of the longest line it creates)
+	 *
+	 */
+	private static class Candidate {
+		final Move move;
+		final int run;
+		final int order; //position in the enumeration, breaks ties between equally rated moves
+
+		Candidate(Move move, int run, int order) {
+			this.move = move;
+			this.run = run;
+			this.order = order;
+		}
+	}
+
+	//best rated first, equally rated moves in the order of enumeration
+	private static final Comparator<Candidate> bestFirst = new Comparator<Candidate>() {
+		@Override
+		public int compare(Candidate a, Candidate b) {
+			return a.run != b.run ? b.run - a.run : a.order - b.order;
+		}
+	};
+
+	/**
+	 * Task that evaluates the root moves from..to-1
+	 *
+	 */
+	private class RootTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Game game;
+		private final List<Candidate> roots;
+		private final double[] values;
+		private final int depth;
+		private final long deadline;
+		private final int from;
+		private final int to;
+
+		RootTask(Game game, List<Candidate> roots, double[] values, int depth, long deadline, int from, int to) {
+			this.game = game;
+			this.roots = roots;
+			this.values = values;
+			this.depth = depth;
+			this.deadline = deadline;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from == 1) {
+				values[from] = evaluateRoot(game, roots.get(from), depth, deadline);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new RootTask(game, roots, values, depth, deadline, from, mid),
+					new RootTask(game, roots, values, depth, deadline, mid, to));
+		}
+	}
+
+	private final ForkJoinPool pool; //pool for the root moves, or null to evaluate them sequentially
+	private final PositionCache<Double> cache = new PositionCache<Double>(cacheSize); //values of already searched positions
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pool pool to evaluate the root moves on, or null to evaluate them on the calling thread
+	 */
+	public HintEngine(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the best move for the given game
+	 *
+	 * @param game current game. Must not be modified during the search
+	 * @param budgetMillis time budget in milliseconds
+	 * @return best move, or null if no move is possible
+	 */
+	public Move findBestMove(Game game, long budgetMillis) {
+		if(game.isGameOver()) {
+			return null;
+		}
+		long deadline = System.nanoTime() + budgetMillis * 1000000L;
+		List<Candidate> roots = candidates(game, rootMoves, deadline);
+		if(roots.isEmpty()) {
+			return null;
+		}
+
+		Move best = roots.get(0).move; //statically best move, in case not even depth 1 finishes
+		double[] values = new double[roots.size()];
+		for(int depth = 1; depth <= maxDepth; depth++) {
+			if(pool != null) {
+				pool.invoke(new RootTask(game, roots, values, depth, deadline, 0, roots.size()));
+			} else {
+				for(int i = 0; i < roots.size(); i++) {
+					values[i] = evaluateRoot(game, roots.get(i), depth, deadline);
+				}
+			}
+
+			int bestIndex = -1;
+			boolean complete = true;
+			for(int i = 0; i < values.length; i++) {
+				if(Double.isNaN(values[i])) {
+					complete = false;
+					break;
+				}
+				if(bestIndex < 0 || values[i] > values[bestIndex]) {
+					bestIndex = i;
+				}
+			}
+			if(!complete) {
+				break; //ran out of time: keep the result of the last complete depth
+			}
+			best = roots.get(bestIndex).move;
+		}
+		return best;
+	}
+
+	/**
+	 * Evaluates a root move, or returns NaN if the deadline has passed
+	 */
+	private double evaluateRoot(Game game, Candidate root, int depth, long deadline) {
+		if(System.nanoTime() > deadline) {
+			return Double.NaN;
+		}
+		double value = expect(game, root, depth, deadline);
+		return System.nanoTime() > deadline ? Double.NaN : value;
+	}
+
+	/**
+	 * Returns the expected value of making the given move
+	 */
+	private double expect(Game game, Candidate c, int depth, long deadline) {
+		if(c.run >= 4) { //the move clears a line, no blocks are placed: deterministic
+			Game after = game.copy(0);
+			c.move.applyTo(after);
+			return value(after, depth - 1, deadline);
+		}
+
+		double sum = 0;
+		for(int k = 0; k < samples; k++) { //sample the placement of the next blocks
+			Game after = game.copy(k * 0x9E3779B97F4A7C15L + depth);
+			c.move.applyTo(after);
+			sum += value(after, depth - 1, deadline);
+		}
+		return sum / samples;
+	}
+
+	/**
+	 * Returns the value of a position, looking ahead depth moves
+	 */
+	private double value(Game game, int depth, long deadline) {
+		if(depth == 0 || System.nanoTime() > deadline) {
+			return evaluate(game);
+		}
+
+		//The searches are deterministic, so positions reached through different move orders can share their value.
+		//The value is cached relative to the current score, which does not influence the search.
+		//The hash only covers the packed cells, so the size is part of the key: the engine is shared by games of all sizes.
+		long key = Zobrist.combine(Zobrist.combine(Zobrist.combine(game.getHash(), game.getSize()), depth),
+				game.getLinesLeft() * 64L + game.getAvailFreeMoves());
+		Double cached = cache.get(key);
+		if(cached != null) {
+			return cached + game.getScore() * scoreWeight;
+		}
+
+		double best;
+		if(game.isGameOver()) { //constant time check, no need to generate the moves of a dead position
+			best = evaluate(game) - deadPenalty;
+		} else {
+			best = Double.NEGATIVE_INFINITY;
+			for(Candidate c : candidates(game, innerMoves, deadline)) {
+				best = Math.max(best, expect(game, c, depth, deadline));
+			}
+		}
+		if(System.nanoTime() <= deadline) { //don't cache values of cut off searches
+			cache.put(key, best - game.getScore() * scoreWeight);
+		}
+		return best;
+	}
+
+	/**
+	 * Static evaluation of a position
+	 *
+	 * @param game
+	 * @return
+	 */
+	protected double evaluate(Game game) {
+		final int[][] field = game.getField();
+		final int size = game.getSize();
+
+		int neighbours = 0; //pairs of neighbouring blocks with the same color
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				int color = field[x][y];
+				if(color == 0) continue;
+				if(y + 1 < size && field[x][y + 1] == color) neighbours++;
+				if(x + 1 < size && field[x + 1][y] == color) neighbours++;
+				if(x + 1 < size && y + 1 < size && field[x + 1][y + 1] == color) neighbours++;
+				if(x + 1 < size && y > 0 && field[x + 1][y - 1] == color) neighbours++;
+			}
+		}
+
+		int regions = game.countEmptyRegions();
+		return game.getScore() * scoreWeight
+				+ game.countFreeCells() * freeCellWeight
+				+ neighbours * neighbourWeight
+				- Math.max(0, regions - 1) * regionWeight;
+	}
+
+	/**
+	 * Returns the best rated legal moves of a position, best first.
+	 * Free moves are only considered if there is no normal move.
+	 * Only the best limit moves are kept while enumerating. Once the deadline has passed, no further blocks are
+	 *  enumerated, so the result may be incomplete (but contains at least one move if there is one).
+	 *
+	 * @param game
+	 * @param limit maximum number of moves to return
+	 * @param deadline System.nanoTime() after which the enumeration stops
+	 */
+	private List<Candidate> candidates(Game game, int limit, long deadline) {
+		final int[][] field = game.getField();
+		final int size = game.getSize();
+
+		PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(Math.min(limit, size * size) + 1, Collections.reverseOrder(bestFirst));
+		int[] blocks = new int[size * size];
+		int[] targets = new int[size * size];
+		int numBlocks = 0;
+		int order = 0;
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				if(field[x][y] == 0) continue;
+				int src = x * size + y;
+				blocks[numBlocks++] = src;
+				if(!best.isEmpty() && System.nanoTime() > deadline) continue;
+				int n = game.getReachableCells(src, targets);
+				for(int i = 0; i < n; i++) {
+					offer(best, limit, field, size, src, targets[i], false, order++);
+				}
+			}
+		}
+
+		if(best.isEmpty() && game.getAvailFreeMoves() > 0) {
+			for(int b = 0; b < numBlocks && (best.isEmpty() || System.nanoTime() <= deadline); b++) {
+				int n = game.getUnreachableCells(blocks[b], targets);
+				for(int i = 0; i < n; i++) {
+					offer(best, limit, field, size, blocks[b], targets[i], true, order++);
+				}
+			}
+		}
+
+		ArrayList<Candidate> res = new ArrayList<Candidate>(best);
+		Collections.sort(res, bestFirst);
+		return res;
+	}
+
+	/**
+	 * Adds a move to the best moves, if it is better rated than the worst of them. The Move is only created if it is kept.
+	 */
+	private static void offer(PriorityQueue<Candidate> best, int limit, final int[][] field, int size, int src, int dst,
+			boolean freeMove, int order) {
+		int run = runLength(field, size, src, dst);
+		if(best.size() >= limit && run <= best.peek().run) {
+			return; //an equally rated move that was enumerated earlier wins
+		}
+		best.add(new Candidate(new Move(src, dst, size, freeMove), run, order));
+		if(best.size() > limit) {
+			best.poll();
+		}
+	}
+
+	/**
+	 * Returns the length of the longest line of equal blocks through dst, after the block at src has been moved to dst
+	 */
+	private static int runLength(final int[][] field, int size, int src, int dst) {
+		final int srcX = src / size, srcY = src % size;
+		final int dstX = dst / size, dstY = dst % size;
+		final int color = field[srcX][srcY];
+		int best = 1;
+		for(int[] d : directions) {
+			int run = 1;
+			for(int sign = -1; sign <= 1; sign += 2) { //walk in both directions
+				int x = dstX + sign * d[0];
+				int y = dstY + sign * d[1];
+				while(x >= 0 && y >= 0 && x < size && y < size && field[x][y] == color && (x != srcX || y != srcY)) {
+					run++;
+					x += sign * d[0];
+					y += sign * d[1];
+				}
+			}
+			best = Math.max(best, run);
+		}
+		return best;
+	}
+}
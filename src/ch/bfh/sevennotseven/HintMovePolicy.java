@@ -0,0 +1,32 @@
+package ch.bfh.sevennotseven;
+
+import java.util.Random;
+
+/**
+ * Move policy that plays the move suggested by the HintEngine.
+ * The search runs on the calling thread, so that a simulation can run one game per core.
+ *
+ */
+public class HintMovePolicy implements MovePolicy {
+
+	private final HintEngine engine = new HintEngine(null);
+	private final long budgetMillis; //time budget per move
+
+	public HintMovePolicy() {
+		this(10);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param budgetMillis time budget per move in milliseconds
+	 */
+	public HintMovePolicy(long budgetMillis) {
+		this.budgetMillis = budgetMillis;
+	}
+
+	@Override
+	public Move nextMove(Game game, Random rand) {
+		return engine.findBestMove(game, budgetMillis);
+	}
+}
@@ -0,0 +1,463 @@
+package ch.bfh.sevennotseven;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent leaderboard. Results are appended to a memory-mapped log and indexed in memory per game size,
+ *  with the best entries (top-K) and a score histogram, so top-N and rank queries do not touch the log.
+ *
+ * Results are submitted without blocking: they are queued and written in batches by a background thread.
+ * The log is replayed when a leaderboard is opened, so the index survives restarts.
+ *
+ * File layout: magic (4 bytes), record size (4 bytes), number of records (8 bytes), then the records.
+ *  Each record consists of timestamp (8 bytes), size, score, level (4 bytes each), length of the player name (1 byte)
+ *  and the player name (UTF-8, zero padded). The number of records is updated after every batch,
+ *  so a batch which was not completely written is ignored when the log is opened again.
+ *
+ */
+public class Leaderboard implements Closeable {
+
+	/**
+	 * A single result
+	 *
+	 */
+	public static class Entry {
+
+		private final String player;
+		private final int size;
+		private final int score;
+		private final int level;
+		private final long timestamp;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param player name of the player, truncated to maxNameBytes bytes
+		 * @param size game size
+		 * @param score
+		 * @param level
+		 * @param timestamp time of the result (milliseconds since 1970)
+		 */
+		public Entry(String player, int size, int score, int level, long timestamp) {
+			this.player = truncate(player);
+			this.size = size;
+			this.score = score;
+			this.level = level;
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * Creates an entry for the final state of a game
+		 *
+		 * @param player name of the player
+		 * @param game finished game
+		 */
+		public Entry(String player, Game game) {
+			this(player, game.getSize(), game.getScore(), game.getLevel(), System.currentTimeMillis());
+		}
+
+		public String getPlayer() {
+			return player;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public int getScore() {
+			return score;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		@Override
+		public String toString() {
+			return player + " " + score + " (level " + level + ")";
+		}
+	}
+
+	/**
+	 * Index of the results of one game size. Keeps the topK best entries sorted by score (descending,
+	 *  older entries first on equal scores) and the number of results per score in a Fenwick tree,
+	 *  which gives the rank of any score in O(log maxScore).
+	 *
+	 */
+	private static class SizeIndex {
+
+		private final Entry[] top;
+		private int topCount;
+		private long[] tree = new long[1024]; //Fenwick tree over the scores, index score+1
+		private long count;
+
+		SizeIndex(int topK) {
+			top = new Entry[topK];
+		}
+
+		synchronized void add(Entry e) {
+			count++;
+			int score = Math.min(maxScore, Math.max(0, e.score)); //logs written before scores were validated
+			while(score + 1 >= tree.length) {
+				grow();
+			}
+			for(int i = score + 1; i < tree.length; i += i & -i) {
+				tree[i]++;
+			}
+
+			if(topCount == top.length && top[topCount - 1].score >= e.score) {
+				return; //not better than the worst of the top entries
+			}
+			//insert after all entries with the same or a higher score
+			int lo = 0, hi = topCount;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(top[mid].score >= e.score) lo = mid + 1;
+				else hi = mid;
+			}
+			int moved = Math.min(topCount, top.length - 1) - lo;
+			System.arraycopy(top, lo, top, lo + 1, moved);
+			top[lo] = e;
+			topCount = Math.min(topCount + 1, top.length);
+		}
+
+		/**
+		 * Doubles the score range of the tree
+		 */
+		private void grow() {
+			long[] old = tree;
+			tree = new long[old.length * 2];
+			//rebuild from the counts per score, which are recovered by differencing the prefix sums
+			long previous = 0;
+			for(int i = 1; i < old.length; i++) {
+				long prefix = prefix(old, i);
+				long n = prefix - previous;
+				previous = prefix;
+				for(int j = i; j < tree.length && n != 0; j += j & -j) {
+					tree[j] += n;
+				}
+			}
+		}
+
+		private static long prefix(long[] tree, int i) {
+			long sum = 0;
+			for(; i > 0; i -= i & -i) {
+				sum += tree[i];
+			}
+			return sum;
+		}
+
+		synchronized long rank(int score) {
+			if(score > maxScore) {
+				return 1;
+			}
+			int i = Math.min(Math.max(0, score) + 1, tree.length - 1);
+			long notBetter = score < 0 ? 0 : prefix(tree, i);
+			return count - notBetter + 1;
+		}
+
+		synchronized List<Entry> top(int n) {
+			return new ArrayList<Entry>(Arrays.asList(top).subList(0, Math.min(n, topCount)));
+		}
+
+		synchronized long count() {
+			return count;
+		}
+	}
+
+	static final int magic = 0x374E4C42; //"7NLB"
+	static final int headerBytes = 16;
+	static final int recordBytes = 48;
+	static final int maxNameBytes = recordBytes - 21;
+	static final int maxScore = 1000000; //highest accepted score, bounds the rank tree of a size to 16 MB
+
+	private static final Charset utf8 = Charset.forName("UTF-8");
+	private static final int initialRecords = 1 << 16;
+	private static final int batchSize = 4096; //maximum number of records written per batch
+	private static final int queueCapacity = 1 << 20;
+
+	private final File path;
+	private final RandomAccessFile file;
+	private final int topK;
+	private final ConcurrentHashMap<Integer, SizeIndex> indices = new ConcurrentHashMap<Integer, SizeIndex>();
+	private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(queueCapacity);
+	private final Thread writer;
+
+	private MappedByteBuffer buffer; //only used by the writer thread after opening
+	private long records; //number of records in the log
+	private long submitted; //guarded by this
+	private long written; //guarded by this
+	private volatile boolean closed; //set while holding the lock of this, so no result is queued after the writer stopped
+	private IOException failure; //reason why the writer stopped, guarded by this
+
+	/**
+	 * Opens a leaderboard, creating the log if it does not exist yet, and starts its writer thread
+	 *
+	 * @param path file of the log
+	 * @param topK number of entries kept per game size for top-N queries
+	 * @throws IOException if the file can not be mapped or is not a leaderboard log
+	 */
+	public Leaderboard(File path, int topK) throws IOException {
+		if(topK < 1) {
+			throw new IllegalArgumentException("Invalid topK " + topK);
+		}
+		this.path = path;
+		this.topK = topK;
+		boolean exists = path.exists() && path.length() > 0;
+		file = new RandomAccessFile(path, "rw");
+		try {
+			if(exists) {
+				if(file.length() < headerBytes) {
+					throw new IOException("Leaderboard " + path + " is truncated");
+				}
+				map(file.length());
+				if(buffer.getInt(0) != magic || buffer.getInt(4) != recordBytes) {
+					throw new IOException(path + " is not a leaderboard");
+				}
+				records = buffer.getLong(8);
+				if(records < 0 || headerBytes + records * recordBytes > file.length()) {
+					throw new IOException("Leaderboard " + path + " is truncated");
+				}
+				for(long r = 0; r < records; r++) {
+					index(read(r));
+				}
+			} else {
+				map(headerBytes + (long) initialRecords * recordBytes);
+				buffer.putInt(0, magic);
+				buffer.putInt(4, recordBytes);
+				buffer.putLong(8, 0);
+			}
+		} catch(IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "Leaderboard writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queues a result. Never blocks: if the writer can not keep up and the queue is full, the result is dropped.
+	 *
+	 * @param entry
+	 * @return false if the result was dropped
+	 * @throws IllegalArgumentException if the score is negative or above maxScore
+	 */
+	public boolean submit(Entry entry) {
+		if(entry.score < 0 || entry.score > maxScore) {
+			throw new IllegalArgumentException("Invalid score " + entry.score);
+		}
+		synchronized(this) {
+			if(closed) {
+				throw new IllegalStateException("Leaderboard is closed");
+			}
+			if(!queue.offer(entry)) {
+				return false;
+			}
+			submitted++;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the best entries of a game size, best first
+	 *
+	 * @param size game size
+	 * @param n maximum number of entries, at most topK entries are available
+	 * @return
+	 */
+	public List<Entry> getTop(int size, int n) {
+		SizeIndex index = indices.get(size);
+		return index == null ? new ArrayList<Entry>() : index.top(n);
+	}
+
+	/**
+	 * Returns the rank a score would have among the results of a game size (1 = best).
+	 * Results with the same score share their rank.
+	 *
+	 * @param size game size
+	 * @param score
+	 * @return
+	 */
+	public long getRank(int size, int score) {
+		SizeIndex index = indices.get(size);
+		return index == null ? 1 : index.rank(score);
+	}
+
+	/**
+	 * Returns the number of written results of a game size
+	 * @param size
+	 * @return
+	 */
+	public long getCount(int size) {
+		SizeIndex index = indices.get(size);
+		return index == null ? 0 : index.count();
+	}
+
+	/**
+	 * Waits until all results submitted so far are written to the log and visible to queries
+	 *
+	 * @throws IOException if the log could not be written
+	 * @throws InterruptedException
+	 */
+	public synchronized void flush() throws IOException, InterruptedException {
+		long target = submitted;
+		while(written < target && failure == null) {
+			wait();
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Writes all queued results, stops the writer thread and closes the log
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+		}
+		try {
+			writer.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		buffer.force();
+		file.close();
+	}
+
+	/**
+	 * Loop of the writer thread: takes batches from the queue until the leaderboard is closed and the queue is empty
+	 */
+	private void writeLoop() {
+		List<Entry> batch = new ArrayList<Entry>(batchSize);
+		try {
+			while(!closed || !queue.isEmpty()) {
+				Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+				append(batch);
+				for(int i = 0; i < batch.size(); i++) {
+					index(batch.get(i));
+				}
+				synchronized(this) {
+					written += batch.size();
+					notifyAll();
+				}
+				batch.clear();
+			}
+		} catch(InterruptedException e) {
+			//stop writing
+		} catch(Throwable e) {
+			System.err.println("Leaderboard " + path + " can not be written: " + e);
+			synchronized(this) {
+				failure = e instanceof IOException ? (IOException) e : new IOException("Leaderboard writer failed", e);
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Appends a batch of records to the log, growing the mapping if needed
+	 */
+	private void append(List<Entry> batch) throws IOException {
+		long needed = headerBytes + (records + batch.size()) * recordBytes;
+		if(needed > buffer.capacity()) {
+			if(needed > Integer.MAX_VALUE) {
+				throw new IOException("Leaderboard is full"); //a single mapping is limited to 2 GB
+			}
+			long capacity = buffer.capacity();
+			while(capacity < needed) capacity = Math.min(capacity * 2, Integer.MAX_VALUE);
+			map(capacity);
+		}
+		for(int i = 0; i < batch.size(); i++) {
+			write(records + i, batch.get(i));
+		}
+		records += batch.size();
+		buffer.putLong(8, records); //commit the batch
+	}
+
+	private void map(long length) throws IOException {
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+	}
+
+	private void write(long record, Entry e) {
+		int offset = (int) (headerBytes + record * recordBytes);
+		byte[] name = e.player.getBytes(utf8);
+		buffer.putLong(offset, e.timestamp);
+		buffer.putInt(offset + 8, e.size);
+		buffer.putInt(offset + 12, e.score);
+		buffer.putInt(offset + 16, e.level);
+		buffer.put(offset + 20, (byte) name.length);
+		for(int i = 0; i < maxNameBytes; i++) {
+			buffer.put(offset + 21 + i, i < name.length ? name[i] : (byte) 0);
+		}
+	}
+
+	private Entry read(long record) throws IOException {
+		int offset = (int) (headerBytes + record * recordBytes);
+		int nameLength = buffer.get(offset + 20) & 0xFF;
+		if(nameLength > maxNameBytes) {
+			throw new IOException("Corrupt leaderboard record " + record);
+		}
+		byte[] name = new byte[nameLength];
+		for(int i = 0; i < nameLength; i++) {
+			name[i] = buffer.get(offset + 21 + i);
+		}
+		return new Entry(new String(name, utf8), buffer.getInt(offset + 8), buffer.getInt(offset + 12),
+				buffer.getInt(offset + 16), buffer.getLong(offset));
+	}
+
+	private void index(Entry e) {
+		SizeIndex index = indices.get(e.size);
+		if(index == null) {
+			SizeIndex created = new SizeIndex(topK);
+			index = indices.putIfAbsent(e.size, created);
+			if(index == null) index = created;
+		}
+		index.add(e);
+	}
+
+	/**
+	 * Shortens a player name, so that it fits into a record
+	 */
+	private static String truncate(String player) {
+		String name = player == null ? "" : player;
+		while(name.getBytes(utf8).length > maxNameBytes) {
+			int end = name.length() - 1;
+			if(end > 0 && Character.isHighSurrogate(name.charAt(end - 1))) end--; //do not split a surrogate pair
+			name = name.substring(0, end);
+		}
+		return name;
+	}
+}
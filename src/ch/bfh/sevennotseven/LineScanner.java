@@ -0,0 +1,106 @@
+package ch.bfh.sevennotseven;
+
+import java.util.Arrays;
+
+/**
+ * Finds every line of 4 or more blocks of the same color on the whole field, in any direction.
+ * Unlike Game.checkRemoveBlocks, which only looks at the lines through one position, the scanner checks all rows,
+ *  columns and diagonals at once. Used to validate positions (after every step a game has no lines left)
+ *  and to find all clearable lines of a position.
+ *
+ * The bitboard scan compares whole 64 bit words of shifted color masks (see BitBoard.runMask), so it handles
+ *  64 positions per operation. The scalar scan works on the int field and is used where no bitboard is available.
+ *
+ */
+public class LineScanner {
+
+	//Directions that are scanned by the scalar scan: right, bottom, bottom right, bottom left
+	private static final int[] directionX = {0, 1, 1, 1};
+	private static final int[] directionY = {1, 0, 1, -1};
+
+	private long[] colorRuns = new long[0]; //scratch buffer for the runs of one color
+
+	/**
+	 * Marks all blocks that are part of a line of 4 or more blocks, using the bitboard of a field.
+	 * Note: uses the scratch buffers of the board, so the board must not be used concurrently.
+	 *
+	 * @param board board to scan
+	 * @param out receives the mask of the blocks (bit x*size+y). Must hold board.getWords() longs
+	 * @return number of marked blocks
+	 */
+	public int scan(final BitBoard board, long[] out) {
+		int words = board.getWords();
+		if(colorRuns.length < words) {
+			colorRuns = new long[words];
+		}
+		Arrays.fill(out, 0, words, 0);
+		for(int c = 1; c <= board.getNumberOfColors(); c++) {
+			if(board.runMask(c, colorRuns)) {
+				for(int w = 0; w < words; w++) out[w] |= colorRuns[w];
+			}
+		}
+		int count = 0;
+		for(int w = 0; w < words; w++) count += Long.bitCount(out[w]);
+		return count;
+	}
+
+	/**
+	 * Marks all blocks that are part of a line of 4 or more blocks, walking over the field (scalar fallback).
+	 *
+	 * @param field field to scan
+	 * @param size game size
+	 * @param out receives the mask of the blocks (bit x*size+y). Must hold (size*size+63)/64 longs
+	 * @return number of marked blocks
+	 */
+	public int scan(final int[][] field, int size, long[] out) {
+		Arrays.fill(out, 0, (size * size + 63) >>> 6, 0);
+		int count = 0;
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				int color = field[x][y];
+				if(color == 0) continue;
+				for(int d = 0; d < directionX.length; d++) {
+					int dx = directionX[d];
+					int dy = directionY[d];
+					//only start at the first block of a run
+					int px = x - dx, py = y - dy;
+					if(px >= 0 && py >= 0 && py < size && field[px][py] == color) continue;
+
+					int length = 1;
+					int cx = x + dx, cy = y + dy;
+					while(cx < size && cy >= 0 && cy < size && field[cx][cy] == color) {
+						length++;
+						cx += dx;
+						cy += dy;
+					}
+					if(length < 4) continue;
+
+					for(int k = 0, rx = x, ry = y; k < length; k++, rx += dx, ry += dy) {
+						int i = rx * size + ry;
+						if((out[i >>> 6] & (1L << i)) == 0) {
+							out[i >>> 6] |= 1L << i;
+							count++;
+						}
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns whether or not the board contains a line of 4 or more blocks of the same color
+	 * @param board
+	 * @return
+	 */
+	public boolean hasLines(final BitBoard board) {
+		int words = board.getWords();
+		if(colorRuns.length < words) {
+			colorRuns = new long[words];
+		}
+		for(int c = 1; c <= board.getNumberOfColors(); c++) {
+			if(board.runMask(c, colorRuns)) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,99 @@
+package ch.bfh.sevennotseven;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed geometry of the lines through every cell of a field of a given size.
+ * For every cell (x*size+y) and each of the 8 directions, the table holds the number of cells between the cell
+ *  and the border of the field, so that lines can be walked without bounds checks.
+ * Tables are immutable and shared between all games of the same size. The cache only holds them weakly,
+ *  so the table of a size is released once no game of that size is left.
+ *
+ */
+public final class LineTable {
+
+	//Offsets to reach the neighbors: right, left, bottom, top, bottom right, top left, bottom left, top right
+	//Opposite directions are next to each other, so direction pair i consists of the directions 2i and 2i+1
+	static final int[] offsetX = {0, 0, 1, -1, 1, -1, -1, 1};
+	static final int[] offsetY = {1, -1, 0, 0, 1, -1, 1, -1};
+	static final int directions = 8;
+
+	private static final ConcurrentHashMap<Integer, WeakReference<LineTable>> tables = new ConcurrentHashMap<Integer, WeakReference<LineTable>>();
+
+	/**
+	 * Returns the table for the given game size
+	 * @param size
+	 * @return
+	 */
+	public static LineTable forSize(int size) {
+		WeakReference<LineTable> ref = tables.get(size);
+		LineTable table = ref == null ? null : ref.get();
+		while(table == null) {
+			purge();
+			LineTable created = new LineTable(size);
+			WeakReference<LineTable> createdRef = new WeakReference<LineTable>(created);
+			if(ref == null ? tables.putIfAbsent(size, createdRef) == null : tables.replace(size, ref, createdRef)) {
+				return created;
+			}
+			ref = tables.get(size); //another thread was faster
+			table = ref == null ? null : ref.get();
+		}
+		return table;
+	}
+
+	/**
+	 * Removes the entries of the tables which have been garbage collected
+	 */
+	private static void purge() {
+		Iterator<WeakReference<LineTable>> it = tables.values().iterator();
+		while(it.hasNext()) {
+			if(it.next().get() == null) {
+				it.remove();
+			}
+		}
+	}
+
+	private final int size;
+	private final int[] rayLength; //number of cells from a cell to the border, indexed by cell*8+direction
+
+	private LineTable(int size) {
+		this.size = size;
+		this.rayLength = new int[size * size * directions];
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				for(int d = 0; d < directions; d++) {
+					int n = 0;
+					int cx = x + offsetX[d];
+					int cy = y + offsetY[d];
+					while(cx >= 0 && cx < size && cy >= 0 && cy < size) {
+						n++;
+						cx += offsetX[d];
+						cy += offsetY[d];
+					}
+					rayLength[(x * size + y) * directions + d] = n;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the game size of this table
+	 * @return
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of cells between x,y and the border of the field in the given direction
+	 * @param x
+	 * @param y
+	 * @param direction 0..7, see offsetX/offsetY
+	 * @return
+	 */
+	public int getRayLength(int x, int y, int direction) {
+		return rayLength[(x * size + y) * directions + direction];
+	}
+}
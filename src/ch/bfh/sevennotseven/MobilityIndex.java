@@ -0,0 +1,84 @@
+package ch.bfh.sevennotseven;
+
+/**
+ * Keeps track of the blocks that can be moved, i.e. the blocks with at least one empty direct neighbour.
+ * A block can always be moved to an empty neighbour, and a block without empty neighbours can not be moved
+ *  without a free move, so the game is over as soon as no such block is left (the field is full or empty).
+ * The index is updated in constant time for every changed cell.
+ * Cells are indexed by x*size+y.
+ *
+ */
+public class MobilityIndex {
+
+	private final int[][] field; //game field the index is built on
+	private final int size; //size of the field along one dimension
+	private final int[] emptyNeighbours; //number of empty direct neighbours per cell
+	private int mobileBlocks; //number of blocks with at least one empty neighbour
+
+	/**
+	 * Creates a new index for an empty field
+	 * @param field game field, must be empty
+	 * @param size game size
+	 */
+	public MobilityIndex(final int[][] field, int size) {
+		this.field = field;
+		this.size = size;
+		this.emptyNeighbours = new int[size * size];
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				int n = 0;
+				if(y + 1 < size) n++;
+				if(y > 0) n++;
+				if(x + 1 < size) n++;
+				if(x > 0) n++;
+				emptyNeighbours[x * size + y] = n;
+			}
+		}
+	}
+
+	/**
+	 * Updates the index after a block has been placed on the empty cell at x,y
+	 * @param x
+	 * @param y
+	 */
+	public void cellFilled(int x, int y) {
+		if(y + 1 < size) neighbourFilled(x, y + 1);
+		if(y > 0) neighbourFilled(x, y - 1);
+		if(x + 1 < size) neighbourFilled(x + 1, y);
+		if(x > 0) neighbourFilled(x - 1, y);
+		if(emptyNeighbours[x * size + y] > 0) mobileBlocks++;
+	}
+
+	/**
+	 * Updates the index after the block at x,y has been removed
+	 * @param x
+	 * @param y
+	 */
+	public void cellFreed(int x, int y) {
+		if(emptyNeighbours[x * size + y] > 0) mobileBlocks--;
+		if(y + 1 < size) neighbourFreed(x, y + 1);
+		if(y > 0) neighbourFreed(x, y - 1);
+		if(x + 1 < size) neighbourFreed(x + 1, y);
+		if(x > 0) neighbourFreed(x - 1, y);
+	}
+
+	/**
+	 * Returns the number of blocks that have at least one empty direct neighbour
+	 * @return
+	 */
+	public int getMobileBlockCount() {
+		return mobileBlocks;
+	}
+
+	private void neighbourFilled(int x, int y) {
+		int i = x * size + y;
+		emptyNeighbours[i]--;
+		if(field[x][y] != 0 && emptyNeighbours[i] == 0) mobileBlocks--;
+	}
+
+	private void neighbourFreed(int x, int y) {
+		int i = x * size + y;
+		emptyNeighbours[i]++;
+		if(field[x][y] != 0 && emptyNeighbours[i] == 1) mobileBlocks++;
+	}
+}
@@ -0,0 +1,120 @@
+package ch.bfh.sevennotseven;
+
+import java.awt.Point;
+
+/**
+ * A single move of a block from src to dst, either a normal move or a free move
+ *
+ */
+public class Move {
+
+	private final int srcX;
+	private final int srcY;
+	private final int dstX;
+	private final int dstY;
+	private final boolean freeMove;
+
+	/**
+	 * Constructor for a normal move
+	 * 
+	 * @param src source block position
+	 * @param dst destination position
+	 */
+	public Move(Point src, Point dst) {
+		this(src, dst, false);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param src source block position
+	 * @param dst destination position
+	 * @param freeMove whether or not the move is a free move (may jump over walls)
+	 */
+	public Move(Point src, Point dst, boolean freeMove) {
+		this(src.x, src.y, dst.x, dst.y, freeMove);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param src source block position, packed as x*size+y
+	 * @param dst destination position, packed as x*size+y
+	 * @param size game size
+	 * @param freeMove whether or not the move is a free move (may jump over walls)
+	 */
+	public Move(int src, int dst, int size, boolean freeMove) {
+		this(src / size, src % size, dst / size, dst % size, freeMove);
+	}
+
+	private Move(int srcX, int srcY, int dstX, int dstY, boolean freeMove) {
+		this.srcX = srcX;
+		this.srcY = srcY;
+		this.dstX = dstX;
+		this.dstY = dstY;
+		this.freeMove = freeMove;
+	}
+
+	/**
+	 * Returns the source block position
+	 * @return
+	 */
+	public Point getSrc() {
+		return new Point(srcX, srcY);
+	}
+
+	/**
+	 * Returns the destination position
+	 * @return
+	 */
+	public Point getDst() {
+		return new Point(dstX, dstY);
+	}
+
+	/**
+	 * Returns the source block position, packed as x*size+y
+	 * @param size game size
+	 * @return
+	 */
+	public int getSrcCell(int size) {
+		return srcX * size + srcY;
+	}
+
+	/**
+	 * Returns the destination position, packed as x*size+y
+	 * @param size game size
+	 * @return
+	 */
+	public int getDstCell(int size) {
+		return dstX * size + dstY;
+	}
+
+	/**
+	 * Returns whether or not this is a free move
+	 * @return
+	 */
+	public boolean isFreeMove() {
+		return freeMove;
+	}
+
+	/**
+	 * Applies the move to the game
+	 * 
+	 * @param game
+	 * @return True if the move was successful
+	 */
+	public boolean applyTo(Game game) {
+		int size = game.getSize();
+		if(srcX < 0 || srcY < 0 || dstX < 0 || dstY < 0 || srcX >= size || srcY >= size || dstX >= size || dstY >= size) {
+			return false;
+		}
+		int src = getSrcCell(size);
+		int dst = getDstCell(size);
+		return freeMove ? game.doFreeMove(src, dst) : game.doMove(src, dst);
+	}
+
+	@Override
+	public String toString() {
+		return (freeMove ? "free " : "") + srcX + "," + srcY + " -> " + dstX + "," + dstY;
+	}
+}
@@ -0,0 +1,21 @@
+package ch.bfh.sevennotseven;
+
+import java.util.Random;
+
+/**
+ * Interface for move policies.
+ * A policy decides which move a (simulated) player makes next. Implementations are shared between
+ *  simulation threads and therefore must not keep any per-game state.
+ *
+ */
+public interface MovePolicy {
+
+	/**
+	 * Chooses the next move for the given game
+	 * 
+	 * @param game current game
+	 * @param rand random number source of the simulated player
+	 * @return the next move, or null if the player gives up (e.g. no move is possible)
+	 */
+	public Move nextMove(Game game, Random rand);
+}
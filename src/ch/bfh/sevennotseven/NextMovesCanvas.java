@@ -10,7 +10,7 @@ import javax.swing.JPanel;
  * Class which renders the Blocks that will be placed next on the field
  *
  */
-public class NextMovesCanvas extends JPanel implements Game.UpdateListener {
+public class NextMovesCanvas extends JPanel implements Game.EventListener {
 
 	private static final long serialVersionUID = 1L;
 
@@ -23,12 +23,14 @@ public class NextMovesCanvas extends JPanel implements Game.UpdateListener {
 	
 	public NextMovesCanvas(Game g) {
 		this.game = g;
-		g.addUpdateListener(this);
+		g.addEventListener(this);
 	}
 	
 	@Override
-	public void gameUpdated() {
-		NextMovesCanvas.this.repaint();
+	public void gameChanged(GameEvent event) {
+		if(event.isNextBlocksChanged() || event.getType() == GameEvent.Type.RESET) {
+			NextMovesCanvas.this.repaint();
+		}
 	}
 	
 	public void paintComponent(Graphics g) {
@@ -0,0 +1,239 @@
+package ch.bfh.sevennotseven;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Connected-component labelling of the empty cells of large fields, split into fixed-size tiles.
+ * Each tile keeps an occupancy summary (number of blocks in the tile), which is updated on every cell change.
+ * Labelling runs in two phases:
+ *  1. every tile is labelled on its own in parallel on a fork-join pool. Full tiles and empty tiles are
+ *     handled without a flood fill, using the occupancy summary.
+ *  2. the labels along the tile borders are merged with union-find.
+ * The labels of tile t are taken from the range t*tileSize*tileSize.., so the tiles need no coordination.
+ *
+ */
+public class ParallelRegionLabeler {
+
+	static final int tileShift = 6;
+	static final int tileSize = 1 << tileShift; //size of a tile along one dimension
+
+	private static ForkJoinPool pool; //shared pool for all labelers
+
+	/**
+	 * Returns the pool the tiles are labelled on
+	 * @return
+	 */
+	static synchronized ForkJoinPool getPool() {
+		if(pool == null) {
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
+
+	/**
+	 * Task that labels a list of tiles
+	 *
+	 */
+	private class TileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] tiles; //tile numbers to label
+		private final int from;
+		private final int to;
+
+		TileTask(int[] tiles, int from, int to) {
+			this.tiles = tiles;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from == 1) {
+				labelTile(tiles[from]);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new TileTask(tiles, from, mid), new TileTask(tiles, mid, to));
+		}
+	}
+
+	private final int[][] field; //game field
+	private final int size; //size of the field along one dimension
+	private final int tilesPerRow; //number of tiles along one dimension
+	private final int[] occupied; //number of blocks per tile
+	private int[] labels; //target arrays of the current labelling
+	private int[] parent;
+
+	/**
+	 * Creates a labeler for the given field
+	 * @param field game field
+	 * @param size game size
+	 */
+	public ParallelRegionLabeler(final int[][] field, int size) {
+		this.field = field;
+		this.size = size;
+		this.tilesPerRow = (size + tileSize - 1) >> tileShift;
+		this.occupied = new int[tilesPerRow * tilesPerRow];
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				if(field[x][y] != 0) occupied[tileOf(x, y)]++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the tile number of the cell x,y
+	 */
+	private int tileOf(int x, int y) {
+		return (x >> tileShift) * tilesPerRow + (y >> tileShift);
+	}
+
+	/**
+	 * Updates the occupancy summary after a block has been placed on x,y
+	 */
+	public void cellFilled(int x, int y) {
+		occupied[tileOf(x, y)]++;
+	}
+
+	/**
+	 * Updates the occupancy summary after x,y has been cleared
+	 */
+	public void cellFreed(int x, int y) {
+		occupied[tileOf(x, y)]--;
+	}
+
+	/**
+	 * Returns the first label that is never used by label()
+	 * @return
+	 */
+	public int getLabelLimit() {
+		return tilesPerRow * tilesPerRow * tileSize * tileSize;
+	}
+
+	/**
+	 * Labels all empty cells.
+	 * On return, labels[x*size+y] is RegionIndex.NONE for occupied cells and a label for empty cells.
+	 * parent[label] is the root label of the region of label (parent[root] == root).
+	 *
+	 * @param labels label per cell
+	 * @param parent union-find parent per label, at least getLabelLimit() long
+	 * @return number of distinct regions
+	 */
+	public int label(int[] labels, int[] parent) {
+		this.labels = labels;
+		this.parent = parent;
+
+		//phase 1: label the tiles in parallel
+		int[] tiles = new int[tilesPerRow * tilesPerRow];
+		for(int t = 0; t < tiles.length; t++) {
+			tiles[t] = t;
+		}
+		getPool().invoke(new TileTask(tiles, 0, tiles.length));
+
+		//phase 2: merge the labels along the tile borders
+		for(int b = tileSize; b < size; b += tileSize) {
+			for(int i = 0; i < size; i++) {
+				union(b - 1, i, b, i); //horizontal border between tile rows
+				union(i, b - 1, i, b); //vertical border between tile columns
+			}
+		}
+
+		//flatten the union-find forest and count the roots
+		int regions = 0;
+		for(int t = 0; t < tiles.length; t++) {
+			int base = t << (2 * tileShift);
+			int end = base + tileSize * tileSize;
+			for(int l = base; l < end && parent[l] != RegionIndex.NONE; l++) {
+				parent[l] = find(l);
+				if(parent[l] == l) regions++;
+			}
+		}
+
+		this.labels = null;
+		this.parent = null;
+		return regions;
+	}
+
+	/**
+	 * Labels the empty cells of one tile with a flood fill (unless the tile is full or empty)
+	 */
+	private void labelTile(int tile) {
+		int x0 = (tile / tilesPerRow) << tileShift;
+		int y0 = (tile % tilesPerRow) << tileShift;
+		int x1 = Math.min(x0 + tileSize, size);
+		int y1 = Math.min(y0 + tileSize, size);
+		int cells = (x1 - x0) * (y1 - y0);
+		int base = tile << (2 * tileShift);
+		parent[base] = RegionIndex.NONE; //marks the end of the used labels of this tile
+
+		if(occupied[tile] == cells) { //full tile: nothing to label
+			for(int x = x0; x < x1; x++) {
+				for(int y = y0; y < y1; y++) labels[x * size + y] = RegionIndex.NONE;
+			}
+			return;
+		}
+
+		if(occupied[tile] == 0) { //empty tile: one region
+			for(int x = x0; x < x1; x++) {
+				for(int y = y0; y < y1; y++) labels[x * size + y] = base;
+			}
+			parent[base] = base;
+			if(base + 1 < parent.length) parent[base + 1] = RegionIndex.NONE;
+			return;
+		}
+
+		final int unlabelled = Integer.MAX_VALUE;
+		for(int x = x0; x < x1; x++) {
+			for(int y = y0; y < y1; y++) {
+				labels[x * size + y] = field[x][y] == 0 ? unlabelled : RegionIndex.NONE;
+			}
+		}
+
+		int[] stack = new int[cells];
+		int next = base;
+		for(int x = x0; x < x1; x++) {
+			for(int y = y0; y < y1; y++) {
+				int i = x * size + y;
+				if(labels[i] != unlabelled) continue;
+				int label = next++;
+				parent[label] = label;
+				labels[i] = label;
+				stack[0] = i;
+				int top = 1;
+				while(top > 0) {
+					int u = stack[--top];
+					int ux = u / size;
+					int uy = u % size;
+					if(uy + 1 < y1 && labels[u + 1] == unlabelled) { labels[u + 1] = label; stack[top++] = u + 1; }
+					if(uy > y0 && labels[u - 1] == unlabelled) { labels[u - 1] = label; stack[top++] = u - 1; }
+					if(ux + 1 < x1 && labels[u + size] == unlabelled) { labels[u + size] = label; stack[top++] = u + size; }
+					if(ux > x0 && labels[u - size] == unlabelled) { labels[u - size] = label; stack[top++] = u - size; }
+				}
+			}
+		}
+		if(next < base + tileSize * tileSize) parent[next] = RegionIndex.NONE;
+	}
+
+	/**
+	 * Merges the regions of two neighbouring cells if both are empty
+	 */
+	private void union(int x1, int y1, int x2, int y2) {
+		int a = labels[x1 * size + y1];
+		int b = labels[x2 * size + y2];
+		if(a == RegionIndex.NONE || b == RegionIndex.NONE) return;
+		a = find(a);
+		b = find(b);
+		if(a != b) parent[Math.max(a, b)] = Math.min(a, b);
+	}
+
+	private int find(int label) {
+		while(parent[label] != label) {
+			parent[label] = parent[parent[label]];
+			label = parent[label];
+		}
+		return label;
+	}
+}
@@ -0,0 +1,88 @@
+package ch.bfh.sevennotseven;
+
+/**
+ * Small LRU cache of path searches, keyed on (field generation, source cell).
+ * Every entry owns a PathFinder, so the search buffers are reused when an entry is recalculated.
+ * An entry is only valid as long as the generation of the field has not changed since the search.
+ *
+ */
+public class PathCache {
+
+	static final int defaultCapacity = 4; //number of sources kept
+
+	private final PathFinder[] finders;
+	private final int[] sources; //packed source cell of each entry
+	private final long[] generations; //field generation of each entry
+	private final long[] lastUse; //clock value of the last access, for LRU eviction
+	private long clock;
+	private int hits;
+	private int misses;
+
+	/**
+	 * Creates a cache with the default capacity
+	 */
+	public PathCache() {
+		this(defaultCapacity);
+	}
+
+	/**
+	 * Creates a cache
+	 * @param capacity number of sources kept
+	 */
+	public PathCache(int capacity) {
+		finders = new PathFinder[capacity];
+		sources = new int[capacity];
+		generations = new long[capacity];
+		lastUse = new long[capacity];
+		for(int i = 0; i < capacity; i++) {
+			finders[i] = new PathFinder();
+			sources[i] = -1;
+		}
+	}
+
+	/**
+	 * Returns a path finder whose costs are calculated from src on the current field
+	 *
+	 * @param field game field
+	 * @param size game size
+	 * @param src source position, packed as x*size+y
+	 * @param generation current generation of the field. Must change whenever the field is modified
+	 * @return
+	 */
+	public PathFinder get(final int[][] field, int size, int src, long generation) {
+		int victim = 0;
+		for(int i = 0; i < finders.length; i++) {
+			if(sources[i] == src && generations[i] == generation) {
+				hits++;
+				lastUse[i] = ++clock;
+				return finders[i];
+			}
+			if(lastUse[i] < lastUse[victim]) {
+				victim = i;
+			}
+		}
+
+		misses++;
+		finders[victim].calculateCosts(field, size, src);
+		sources[victim] = src;
+		generations[victim] = generation;
+		lastUse[victim] = ++clock;
+		return finders[victim];
+	}
+
+	/**
+	 * Returns the number of lookups that were answered without a search
+	 * @return
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that needed a search
+	 * @return
+	 */
+	public int getMisses() {
+		return misses;
+	}
+}
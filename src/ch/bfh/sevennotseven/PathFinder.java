@@ -6,100 +6,38 @@ import java.util.List;
 
 /**
  * Class which provides helper to find the shortest path between two points
- * Based on pseudo-code from https://de.wikipedia.org/wiki/Dijkstra-Algorithmus#Algorithmus_in_Pseudocode
+ * All edges of the field graph have a cost of 1, so a breadth first search yields the shortest pathes.
+ * The search works on flat int buffers (indexed by x*size+y) which are reused between calls.
  *
  */
 public class PathFinder {
-	
-	
-	/**
-	 * 
-	 * Helper class which represents a Node/Vertex of a Graph
-	 *
-	 */
-	public static class Vertex {
-		
-		/* Class Members */
-		private int dist;
-		private Point pos;
-		private Vertex prev;
-		
-		/**
-		 * Costructor
-		 * 
-		 * @param int dist
-		 * @param Point pos
-		 */
-		public Vertex(int dist, Point pos) {
-			this.dist = dist;
-			this.pos = pos;
-			this.prev = null;
-		}
 
-		/**
-		 * Set the distance
-		 * 
-		 * @param int dist
-		 */
-		public void setDist(int dist){
-			this.dist = dist;
-		}
-		
-		/**
-		 * Set current position
-		 * 
-		 * @param Point pos
-		 */
-		public void setPos(Point pos){
-			this.pos = pos;
-		}
-		
-		/**
-		 * Set previous vertex
-		 * 
-		 * @param Vertex prev
-		 */
-		public void setPrev(Vertex prev){
-			this.prev = prev;		
-		}
-		
-		/**
-		 * Get the distance 
-		 * 
-		 * @return int dist
-		 */
-		public int getDist(){
-			return this.dist;
-		}
-		
-		/** 
-		 * Get current position
-		 * 
-		 * @return Point pos
-		 */
-		public Point getPos(){
-			return this.pos;
-		}
-		
-		/** 
-		 * Get previous vertex
-		 * 
-		 * @return Vertex prev
-		 */
-		public Vertex getPrev(){
-			return this.prev;
-		}
+	//Marker for cells that were not reached by the last search
+	private static final int UNREACHED = -1;
+
+	//Reusable search buffers, indexed by x*size+y
+	private int[] dist = new int[0]; //distance from src, or UNREACHED
+	private int[] prev = new int[0]; //index of the previous cell on the shortest path, or UNREACHED
+	private int[] queue = new int[0]; //bfs queue
 
-	}
-	
 	//Storage for last values
-	private ArrayList<Vertex> verticies = null;
-	private Point lastSrc = null;
+	private int lastSrc = UNREACHED; //index of the last src
 	private int[][] lastField = null;
 	private int lastSize;
-	
-	
-	
+
+	/**
+	 * Makes sure the search buffers can hold a field of the given size
+	 * @param size game size
+	 */
+	private void ensureCapacity(int size) {
+		int cells = size * size;
+		if(dist.length < cells) {
+			dist = new int[cells];
+			prev = new int[cells];
+			queue = new int[cells];
+		}
+	}
+
 	/**
 	 * Calculates the cost to reach each block starting from point src
 	 * @param field game field
@@ -107,177 +45,156 @@ public class PathFinder {
 	 * @param src starting point
 	 */
 	public void calculateCosts(final int[][] field, int size, final Point src) {
-		ArrayList<Vertex> openVerticies = new ArrayList<Vertex>(); // List of vertices
+		calculateCosts(field, size, src.x * size + src.y);
+	}
 
-		openVerticies.add(new Vertex(0, src));
-	
-		// Get a verticies list from the field data
-		for(int i= 0; i < size; i++){
-			for(int j = 0; j < size; j++){
-				if(field[i][j] == 0 && (src.x!=i || src.y!=j)){ //field empty and not src
-					openVerticies.add(new Vertex(Integer.MAX_VALUE, new Point(i, j)));
-				}
-			}
+	/**
+	 * Calculates the cost to reach each block starting from src
+	 * @param field game field
+	 * @param size game size
+	 * @param start starting position, packed as x*size+y
+	 */
+	public void calculateCosts(final int[][] field, int size, int start) {
+		EngineMetrics.start(EngineMetrics.Operation.PATH_SEARCH);
+		EngineEvents.PathSearch event = null;
+		if(EngineEvents.enabled) {
+			event = new EngineEvents.PathSearch();
+			event.begin();
+		}
+		ensureCapacity(size);
+		int cells = size * size;
+		for(int i = 0; i < cells; i++) {
+			dist[i] = UNREACHED;
+			prev[i] = UNREACHED;
 		}
-		
-		ArrayList<Vertex> allVerticies = new ArrayList<Vertex>(openVerticies); // List of vertices
-		
-		while(!openVerticies.isEmpty()){ // As long as there are vertices 
-			final Vertex u = findNearestVertex(openVerticies);	
-			openVerticies.remove(u);	// Remove u from the set of vertices
-			
-			if(u.getDist()==Integer.MAX_VALUE) {
-				continue;
+
+		dist[start] = 0;
+		queue[0] = start;
+		int head = 0;
+		int tail = 1;
+
+		while(head < tail){ // As long as there are cells to visit
+			final int u = queue[head++];
+			final int x = u / size;
+			final int y = u % size;
+			final int alternative = dist[u] + 1; //cost of current path + 1 (=cost to reach neighbor)
+
+			// for each neighbour of u ...
+			if(y + 1 < size && field[x][y + 1] == 0 && dist[u + 1] == UNREACHED) {
+				dist[u + 1] = alternative;
+				prev[u + 1] = u;
+				queue[tail++] = u + 1;
 			}
-			
-			final Point[] offsets = { 
-				new Point(0,1),
-				new Point(0,-1),
-				new Point(1,0),
-				new Point(-1,0)
-			};
-			
-			for(int i = 0; i < 4; i++){	// for each neighbour of u ...
-				final Point p = u.getPos();
-				final Point offs = offsets[i];
-				int x = p.x + offs.x;
-				int y = p.y + offs.y;
-				if(x<0 || y<0 || x>=size || y>= size) continue;
-			
-				final Vertex v = findVertex(x,y, openVerticies);
-				//distanz_update(u,v)
-				if(v!=null){
-					int alternative = u.getDist()+1; //alternative has cost of current path + 1 (=cost to reach neighbor)
-					if( alternative< v.getDist()) { 
-						v.setDist(alternative);
-						v.setPrev(u);
-					}
-				}
+			if(y > 0 && field[x][y - 1] == 0 && dist[u - 1] == UNREACHED) {
+				dist[u - 1] = alternative;
+				prev[u - 1] = u;
+				queue[tail++] = u - 1;
+			}
+			if(x + 1 < size && field[x + 1][y] == 0 && dist[u + size] == UNREACHED) {
+				dist[u + size] = alternative;
+				prev[u + size] = u;
+				queue[tail++] = u + size;
+			}
+			if(x > 0 && field[x - 1][y] == 0 && dist[u - size] == UNREACHED) {
+				dist[u - size] = alternative;
+				prev[u - size] = u;
+				queue[tail++] = u - size;
 			}
 		}
-		
+
 		//assign new values to storage
-		lastSrc = src;
-		verticies = allVerticies;	
+		lastSrc = start;
 		lastField = field;
-		lastSize = size;		
+		lastSize = size;
+		EngineMetrics.stop(EngineMetrics.Operation.PATH_SEARCH);
+		if(event != null && event.shouldCommit()) {
+			event.size = size;
+			event.src = start;
+			event.cellsVisited = tail;
+			event.commit();
+		}
 	}
-	
-	
-	
+
 	/**
 	 * Seeks the shortest path to dst without crossing any walls
 	 * @param dst
 	 * @return Shortest path between src and dst, or null if there is no path
 	 */
 	public List<Point> getPath(final Point dst){
-		if(lastSrc==null || verticies == null || lastField == null) return null;
-		
-		ArrayList<Point> path = new ArrayList<Point>();
-		path.add(dst);
-		Vertex u = findVertex(dst, verticies);
-		if(u==null) {
+		if(lastSrc == UNREACHED) return null;
+		if(dst.x < 0 || dst.y < 0 || dst.x >= lastSize || dst.y >= lastSize) return null;
+
+		int u = dst.x * lastSize + dst.y;
+		if(dist[u] == UNREACHED) {
 			return null;
 		}
-		while(u.getPrev()!=null){
-			u= u.getPrev();
-			path.add(0, u.getPos());
+
+		//Walk back from dst to src and fill the path from the end
+		Point[] path = new Point[dist[u] + 1];
+		for(int i = path.length - 1; i >= 0; i--) {
+			path[i] = new Point(u / lastSize, u % lastSize);
+			u = prev[u];
 		}
-		if(u!=findVertex(lastSrc, verticies)){
-			return null;
+
+		ArrayList<Point> res = new ArrayList<Point>(path.length);
+		for(Point p : path) {
+			res.add(p);
 		}
-		return path;
+		return res;
 	}
-	
+
+	/**
+	 * Seeks the shortest path to dst without crossing any walls
+	 * @param dst destination, packed as x*size+y
+	 * @param out receives the packed positions of the path, from src to dst
+	 * @return length of the path (including src and dst), or -1 if there is no path
+	 */
+	public int getPath(int dst, int[] out){
+		if(lastSrc == UNREACHED) return -1;
+		if(dst < 0 || dst >= lastSize * lastSize || dist[dst] == UNREACHED) return -1;
+
+		//Walk back from dst to src and fill the path from the end
+		int length = dist[dst] + 1;
+		int u = dst;
+		for(int i = length - 1; i >= 0; i--) {
+			out[i] = u;
+			u = prev[u];
+		}
+		return length;
+	}
+
 	/**
 	 * Returns all points which are reachable from src, without crossing any walls
 	 * @return
 	 */
 	public List<Point> getReachablePoints() {
-		if(lastSrc==null || verticies == null || lastField == null) return null;
+		if(lastSrc == UNREACHED) return null;
 		ArrayList<Point> res = new ArrayList<Point>();
-		for(int x=0; x<lastSize; x++) {
-			for(int y=0; y<lastSize; y++) {
-				if(lastSrc.x == x && lastSrc.y ==y) continue;
-				if(lastField[x][y]!=0) continue;
-				Vertex u = findVertex(x, y, verticies);
-				if(u==null) continue;
-				if(u.getPrev()!=null && u.getDist()!= Integer.MAX_VALUE) {
-					res.add(u.getPos());
-				}
+		int cells = lastSize * lastSize;
+		for(int i = 0; i < cells; i++) {
+			if(i != lastSrc && dist[i] != UNREACHED) {
+				res.add(new Point(i / lastSize, i % lastSize));
 			}
 		}
 		return res;
 	}
-	
+
 	/**
 	 * Returns all points which are UNreachable from src, without crossing any walls
 	 * @return
 	 */
 	public List<Point> getUnreachablePoints() {
-		if(lastSrc==null || verticies == null || lastField == null) return null;
+		if(lastSrc == UNREACHED) return null;
 		ArrayList<Point> res = new ArrayList<Point>();
-		for(int x=0; x<lastSize; x++) {
-			for(int y=0; y<lastSize; y++) {
-				if(lastSrc.x == x && lastSrc.y ==y) continue;
-				if(lastField[x][y]!=0) continue;
-				Vertex u = findVertex(x, y, verticies);
-				if(u==null|| u.getPrev() == null || u.getDist() == Integer.MAX_VALUE) {
-					res.add(u.getPos());
-				}
+		int cells = lastSize * lastSize;
+		for(int i = 0; i < cells; i++) {
+			int x = i / lastSize;
+			int y = i % lastSize;
+			if(i != lastSrc && lastField[x][y] == 0 && dist[i] == UNREACHED) {
+				res.add(new Point(x, y));
 			}
 		}
 		return res;
 	}
-	
-
-	/**
-	 * Finds the nearest vertex to start
-	 * 
-	 * @param vertices
-	 * @return Nearest vertex to the fist element of the given vertices list.
-	 */
-	private Vertex findNearestVertex(final List<Vertex> vertices){
-		Vertex tmp = vertices.get(0);
-		
-		for (int i = 1; i < vertices.size(); i++) {
-			Vertex n = vertices.get(i);
-			if(n.getDist() < tmp.getDist()) {
-				tmp = n;
-			}
-		}
-		
-		return tmp;
-	}
-	
-	/**
-	 * Helper function for pathfinding. Finds a vertex corresponding to the given coordinate.
-	 * 
-	 * @param x
-	 * @param y
-	 * @param vertices
-	 * @return Vertex with the given position out of a list of vertices.
-	 */
-	private Vertex findVertex(int x, int y, final List<Vertex> vertices){
-		return findVertex(new Point(x,y), vertices);
-	}
-
-	/**
-	 * Helper function for pathfinding. Finds a vertex corresponding to the given point.
-	 * 
-	 * @param pos
-	 * @param vertices
-	 * @return Vertex with the given position out of a list of vertices.
-	 */
-	private Vertex findVertex(final Point pos, final List<Vertex> vertices){
-		for (int i = 0; i < vertices.size(); i++) {
-			Vertex n = vertices.get(i);
-			if(n.getPos().equals(pos)) {
-				return n;
-			}
-		}
-		return null;
-	}
-	
 
 }
@@ -0,0 +1,105 @@
+package ch.bfh.sevennotseven;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, thread safe cache for values of game positions, keyed by a 64 bit position hash (see Zobrist).
+ * The cache is split into segments which are locked independently. Each segment evicts its least recently
+ *  used entry once it is full.
+ *
+ * @param <V> type of the cached values
+ */
+public class PositionCache<V> {
+
+	/**
+	 * One segment: a LinkedHashMap in access order, which drops its eldest entry when full
+	 *
+	 */
+	private static class Segment<V> extends LinkedHashMap<Long, V> {
+
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+			return size() > capacity;
+		}
+	}
+
+	private final Segment<V>[] segments;
+	private final int mask;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity maximum number of entries
+	 */
+	@SuppressWarnings("unchecked")
+	public PositionCache(int capacity) {
+		int n = Integer.highestOneBit(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4, capacity / 16)));
+		segments = (Segment<V>[]) new Segment<?>[n];
+		for(int i = 0; i < n; i++) {
+			segments[i] = new Segment<V>(Math.max(1, capacity / n));
+		}
+		mask = n - 1;
+	}
+
+	private Segment<V> segmentFor(long hash) {
+		return segments[(int) (hash ^ (hash >>> 32)) & mask];
+	}
+
+	/**
+	 * Returns the cached value of a position
+	 * @param hash position hash
+	 * @return cached value, or null if the position is not cached
+	 */
+	public V get(long hash) {
+		Segment<V> segment = segmentFor(hash);
+		synchronized(segment) {
+			return segment.get(hash);
+		}
+	}
+
+	/**
+	 * Stores the value of a position, possibly evicting the least recently used entry of its segment
+	 * @param hash position hash
+	 * @param value
+	 */
+	public void put(long hash, V value) {
+		Segment<V> segment = segmentFor(hash);
+		synchronized(segment) {
+			segment.put(hash, value);
+		}
+	}
+
+	/**
+	 * Returns the number of cached entries
+	 * @return
+	 */
+	public int size() {
+		int n = 0;
+		for(Segment<V> segment : segments) {
+			synchronized(segment) {
+				n += segment.size();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		for(Segment<V> segment : segments) {
+			synchronized(segment) {
+				segment.clear();
+			}
+		}
+	}
+}
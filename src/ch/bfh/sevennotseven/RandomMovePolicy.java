@@ -0,0 +1,55 @@
+package ch.bfh.sevennotseven;
+
+import java.util.Random;
+
+/**
+ * Move policy that moves a random block to a random reachable position.
+ * Uses a free move (to a random empty position) only if no block can be moved normally.
+ *
+ */
+public class RandomMovePolicy implements MovePolicy {
+
+	@Override
+	public Move nextMove(Game game, Random rand) {
+		if(game.isGameOver()) {
+			return null;
+		}
+		final int[][] field = game.getField();
+		final int size = game.getSize();
+
+		int[] blocks = new int[size * size]; //packed positions
+		int[] empty = new int[size * size];
+		int numBlocks = 0;
+		int numEmpty = 0;
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				if(field[x][y] != 0) {
+					blocks[numBlocks++] = x * size + y;
+				} else {
+					empty[numEmpty++] = x * size + y;
+				}
+			}
+		}
+
+		//shuffle the blocks (Fisher-Yates, same order as Collections.shuffle)
+		for(int i = numBlocks - 1; i > 0; i--) {
+			int j = rand.nextInt(i + 1);
+			int tmp = blocks[i];
+			blocks[i] = blocks[j];
+			blocks[j] = tmp;
+		}
+
+		int[] reachable = new int[size * size];
+		for(int i = 0; i < numBlocks; i++) {
+			int n = game.getReachableCells(blocks[i], reachable);
+			if(n > 0) {
+				return new Move(blocks[i], reachable[rand.nextInt(n)], size, false);
+			}
+		}
+
+		if(game.getAvailFreeMoves() > 0 && numBlocks > 0 && numEmpty > 0) {
+			return new Move(blocks[0], empty[rand.nextInt(numEmpty)], size, true);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,273 @@
+package ch.bfh.sevennotseven;
+
+/**
+ * Labelled map of the empty regions of a game field.
+ * Two empty cells are reachable from each other exactly when they have the same region label.
+ * The labels are kept up to date incrementally: freeing a cell merges the regions around it (union-find),
+ *  filling a cell only requires a relabelling if the cell could have split its region.
+ * Cells are indexed by x*size+y.
+ * On large fields the relabelling is done tile by tile in parallel (see ParallelRegionLabeler).
+ *
+ */
+public class RegionIndex {
+
+	//Label of occupied cells
+	public static final int NONE = -1;
+
+	//Offsets of the 8 cells around a cell, in circular order (used by the split test)
+	private static final int[] ringX = {-1, -1, 0, 1, 1, 1, 0, -1};
+	private static final int[] ringY = {0, 1, 1, 1, 0, -1, -1, -1};
+
+	private final int[][] field; //game field the index is built on
+	private final int size; //size of the field along one dimension
+	private final int[] labels; //label per cell, or NONE if the cell is occupied
+	private final int[] parent; //union-find parent per label
+	private final int[] stack; //scratch buffer for flood fills
+	private int[] regionSizes; //scratch buffer of countMoves, number of cells per root label
+	private final ParallelRegionLabeler labeler; //labeler for large fields, or null
+	private int nextLabel; //next unused label
+	private int regionCount; //number of distinct regions
+	private boolean dirty; //labels must be rebuilt before the next query
+
+	/**
+	 * Creates a new index for the given field
+	 * @param field game field
+	 * @param size game size
+	 */
+	public RegionIndex(final int[][] field, int size) {
+		this(field, size, null);
+	}
+	
+	/**
+	 * Creates a new index for the given field
+	 * @param field game field
+	 * @param size game size
+	 * @param labeler labeler that relabels the whole field, or null to use a sequential flood fill
+	 */
+	public RegionIndex(final int[][] field, int size, ParallelRegionLabeler labeler) {
+		this.field = field;
+		this.size = size;
+		this.labeler = labeler;
+		int cells = size * size;
+		this.labels = new int[cells];
+		this.parent = new int[(labeler == null ? cells : labeler.getLabelLimit()) + cells + 1];
+		this.stack = labeler == null ? new int[cells] : null;
+		this.dirty = true;
+	}
+
+	/**
+	 * Updates the index after the cell at x,y has been cleared
+	 * @param x
+	 * @param y
+	 */
+	public void cellFreed(int x, int y) {
+		if(labeler != null) labeler.cellFreed(x, y);
+		if(dirty) return;
+		if(nextLabel >= parent.length) { //out of labels => start over on the next query
+			dirty = true;
+			return;
+		}
+
+		int label = nextLabel++;
+		parent[label] = label;
+		labels[x * size + y] = label;
+		regionCount++;
+
+		//merge with the regions of all empty neighbours
+		if(y + 1 < size) merge(label, x, y + 1);
+		if(y > 0) merge(label, x, y - 1);
+		if(x + 1 < size) merge(label, x + 1, y);
+		if(x > 0) merge(label, x - 1, y);
+	}
+
+	/**
+	 * Updates the index after a block has been placed on the cell at x,y
+	 * @param x
+	 * @param y
+	 */
+	public void cellFilled(int x, int y) {
+		if(labeler != null) labeler.cellFilled(x, y);
+		if(dirty) return;
+		int i = x * size + y;
+		labels[i] = NONE;
+
+		//Walk around the cell and count the groups of consecutive empty cells which contain one of the 4 direct neighbours.
+		//Consecutive cells on the ring touch each other, so with at most one such group the region can not have been split.
+		int empty = 0; //bit k is set if ring cell k is empty
+		for(int k = 0; k < 8; k++) {
+			if(isEmpty(x + ringX[k], y + ringY[k])) empty |= 1 << k;
+		}
+		int directEmpty = Integer.bitCount(empty & 0x55); //even ring positions are the direct neighbours
+
+		int groups = 0;
+		if(empty == 0xFF) {
+			groups = 1;
+		} else {
+			int start = Integer.numberOfTrailingZeros(~empty); //an occupied ring cell to start from
+			boolean inGroup = false;
+			boolean groupHasDirect = false;
+			for(int j = 1; j <= 8; j++) {
+				int k = (start + j) & 7;
+				if((empty & (1 << k)) != 0) {
+					if(!inGroup) {
+						inGroup = true;
+						groupHasDirect = false;
+					}
+					groupHasDirect |= (k & 1) == 0;
+				} else {
+					if(inGroup && groupHasDirect) groups++;
+					inGroup = false;
+				}
+			}
+		}
+
+		if(directEmpty == 0) {
+			regionCount--; //the cell was a region on its own
+		} else if(groups > 1) {
+			dirty = true; //the region might have been split
+		}
+	}
+
+	/**
+	 * Returns the region label of the given cell
+	 * @param x
+	 * @param y
+	 * @return region label, or NONE if the cell is occupied
+	 */
+	public int regionOf(int x, int y) {
+		if(dirty) rebuild();
+		int label = labels[x * size + y];
+		return label == NONE ? NONE : find(label);
+	}
+
+	/**
+	 * Returns the number of distinct empty regions
+	 * @return
+	 */
+	public int getRegionCount() {
+		if(dirty) rebuild();
+		return regionCount;
+	}
+
+	/**
+	 * Returns whether or not the cell at x,y is empty and belongs to one of the regions around src.
+	 * That is the case if a block at src could be moved to x,y without crossing any walls.
+	 *
+	 * @param srcX
+	 * @param srcY
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean isReachable(int srcX, int srcY, int x, int y) {
+		int region = regionOf(x, y);
+		if(region == NONE) return false;
+		return (srcY + 1 < size && regionOf(srcX, srcY + 1) == region)
+				|| (srcY > 0 && regionOf(srcX, srcY - 1) == region)
+				|| (srcX + 1 < size && regionOf(srcX + 1, srcY) == region)
+				|| (srcX > 0 && regionOf(srcX - 1, srcY) == region);
+	}
+
+	/**
+	 * Returns the number of normal moves on the field: for every block, the number of empty cells in the regions
+	 *  around it. Takes time proportional to the number of cells.
+	 * @return
+	 */
+	public long countMoves() {
+		if(dirty) rebuild();
+		if(regionSizes == null) {
+			regionSizes = new int[parent.length];
+		}
+		int cells = size * size;
+		for(int i = 0; i < cells; i++) {
+			if(labels[i] != NONE) regionSizes[find(labels[i])]++;
+		}
+
+		long moves = 0;
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				if(field[x][y] == 0) continue;
+				//add every distinct region around the block once
+				int a = y + 1 < size ? regionOf(x, y + 1) : NONE;
+				int b = y > 0 ? regionOf(x, y - 1) : NONE;
+				int c = x + 1 < size ? regionOf(x + 1, y) : NONE;
+				int d = x > 0 ? regionOf(x - 1, y) : NONE;
+				if(a != NONE) moves += regionSizes[a];
+				if(b != NONE && b != a) moves += regionSizes[b];
+				if(c != NONE && c != a && c != b) moves += regionSizes[c];
+				if(d != NONE && d != a && d != b && d != c) moves += regionSizes[d];
+			}
+		}
+
+		for(int i = 0; i < cells; i++) {
+			if(labels[i] != NONE) regionSizes[find(labels[i])] = 0;
+		}
+		return moves;
+	}
+
+	/**
+	 * Merges the region of the cell x,y (if empty) into the region with the given label
+	 */
+	private void merge(int label, int x, int y) {
+		int other = labels[x * size + y];
+		if(other == NONE) return;
+		int a = find(label);
+		int b = find(other);
+		if(a != b) {
+			parent[b] = a;
+			regionCount--;
+		}
+	}
+
+	/**
+	 * Union-find lookup with path halving
+	 */
+	private int find(int label) {
+		while(parent[label] != label) {
+			parent[label] = parent[parent[label]];
+			label = parent[label];
+		}
+		return label;
+	}
+
+	private boolean isEmpty(int x, int y) {
+		return x >= 0 && y >= 0 && x < size && y < size && field[x][y] == 0;
+	}
+
+	/**
+	 * Labels all empty regions from scratch using a flood fill (or the parallel labeler)
+	 */
+	private void rebuild() {
+		if(labeler != null) {
+			regionCount = labeler.label(labels, parent);
+			nextLabel = labeler.getLabelLimit();
+			dirty = false;
+			return;
+		}
+		
+		int cells = size * size;
+		for(int i = 0; i < cells; i++) {
+			labels[i] = field[i / size][i % size] == 0 ? Integer.MAX_VALUE : NONE;
+		}
+
+		nextLabel = 0;
+		for(int i = 0; i < cells; i++) {
+			if(labels[i] != Integer.MAX_VALUE) continue;
+			int label = nextLabel++;
+			parent[label] = label;
+			labels[i] = label;
+			stack[0] = i;
+			int top = 1;
+			while(top > 0) {
+				int u = stack[--top];
+				int y = u % size;
+				if(y + 1 < size && labels[u + 1] == Integer.MAX_VALUE) { labels[u + 1] = label; stack[top++] = u + 1; }
+				if(y > 0 && labels[u - 1] == Integer.MAX_VALUE) { labels[u - 1] = label; stack[top++] = u - 1; }
+				if(u + size < cells && labels[u + size] == Integer.MAX_VALUE) { labels[u + size] = label; stack[top++] = u + size; }
+				if(u - size >= 0 && labels[u - size] == Integer.MAX_VALUE) { labels[u - size] = label; stack[top++] = u - size; }
+			}
+		}
+		regionCount = nextLabel;
+		dirty = false;
+	}
+}
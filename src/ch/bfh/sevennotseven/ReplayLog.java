@@ -0,0 +1,349 @@
+package ch.bfh.sevennotseven;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary log of a game, from which the game can be reproduced exactly.
+ * The log stores the size and the seed of the game, followed by all successful commands
+ *  (moves, free moves, undos and resets) and the final score and level claimed by the player, which a log must end with
+ *  to be replayed.
+ *
+ * Format: magic (4 bytes), version (1 byte), size (varint), seed (8 bytes), then one entry per command:
+ *  an opcode byte, followed by the packed (x*size+y) src and dst cells as varints for moves,
+ *  the new size for resets and the score and level for the end marker.
+ *  A batch of moves (Game.doMoves) is stored as the number of moves, followed by the moves with their opcodes.
+ *
+ */
+public class ReplayLog {
+
+	static final int magic = 0x374E4F37; //"7NO7"
+	static final byte version = 1;
+
+	static final byte opMove = 1;
+	static final byte opFreeMove = 2;
+	static final byte opUndo = 3;
+	static final byte opReset = 4;
+	static final byte opEnd = 5;
+	static final byte opBatch = 6; //followed by the number of moves and the moves (opMove/opFreeMove, src, dst)
+
+	private byte[] data; //encoded log
+	private int length; //number of used bytes in data
+	private int size; //current game size, used to pack the cells
+	private final int initialSize;
+	private final long seed;
+
+	/**
+	 * Starts a new log for a game with the given size and seed
+	 * @param size
+	 * @param seed
+	 */
+	public ReplayLog(int size, long seed) {
+		this.data = new byte[64];
+		this.size = size;
+		this.initialSize = size;
+		this.seed = seed;
+		writeInt(magic);
+		writeByte(version);
+		writeVarint(size);
+		writeLong(seed);
+	}
+
+	/**
+	 * Returns the seed of the recorded game
+	 * @return
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the size the recorded game started with
+	 * @return
+	 */
+	public int getSize() {
+		return initialSize;
+	}
+
+	/**
+	 * Records a successful move
+	 * @param src source position, packed as x*size+y
+	 * @param dst destination position, packed as x*size+y
+	 * @param freeMove whether or not the move was a free move
+	 */
+	void recordMove(int src, int dst, boolean freeMove) {
+		writeByte(freeMove ? opFreeMove : opMove);
+		writeVarint(src);
+		writeVarint(dst);
+	}
+
+	/**
+	 * Records the applied moves of a batch (see Game.doMoves), which form a single step
+	 * @param moves moves of the batch
+	 * @param applied number of applied moves, from the start of the list
+	 * @param size game size
+	 */
+	void recordBatch(List<Move> moves, int applied, int size) {
+		writeByte(opBatch);
+		writeVarint(applied);
+		for(int i = 0; i < applied; i++) {
+			Move move = moves.get(i);
+			writeByte(move.isFreeMove() ? opFreeMove : opMove);
+			writeVarint(move.getSrcCell(size));
+			writeVarint(move.getDstCell(size));
+		}
+	}
+
+	/**
+	 * Records a successful undo
+	 */
+	void recordUndo() {
+		writeByte(opUndo);
+	}
+
+	/**
+	 * Records a reset of the game
+	 * @param size new size
+	 */
+	void recordReset(int size) {
+		writeByte(opReset);
+		writeVarint(size);
+		this.size = size;
+	}
+
+	/**
+	 * Appends the final score and level of the game, which will be checked when the log is verified.
+	 * This has to be the last entry of the log.
+	 * @param game the recorded game
+	 */
+	public void finish(Game game) {
+		writeByte(opEnd);
+		writeVarint(game.getScore());
+		writeVarint(game.getLevel());
+	}
+
+	/**
+	 * Returns the encoded log
+	 * @return
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(data, length);
+	}
+
+	/**
+	 * Replays an encoded log.
+	 *
+	 * @param log encoded log
+	 * @return the game in its final state
+	 * @throws IllegalArgumentException if the log is malformed, contains a command that fails, does not end with
+	 *  exactly one end marker or if the final score/level does not match the one stored in the log
+	 */
+	public static Game replay(final byte[] log) {
+		Reader in = new Reader(log);
+		if(in.readInt() != magic || in.readByte() != version) {
+			throw new IllegalArgumentException("Not a replay log");
+		}
+		int size = checkSize(in.readVarint());
+		long seed = in.readLong();
+		Game game = new Game(size, seed);
+
+		boolean ended = false;
+		while(in.hasMore()) {
+			byte op = in.readByte();
+			switch(op) {
+			case opMove:
+			case opFreeMove:
+				int s = in.readVarint();
+				int d = in.readVarint();
+				if(s < 0 || d < 0 || s >= size * size || d >= size * size) {
+					throw new IllegalArgumentException("Position out of range at offset " + in.position());
+				}
+				boolean ok = op == opMove ? game.doMove(s, d) : game.doFreeMove(s, d);
+				if(!ok) {
+					throw new IllegalArgumentException("Illegal move at offset " + in.position());
+				}
+				break;
+			case opBatch:
+				int count = in.readVarint();
+				if(count < 1 || count > log.length) {
+					throw new IllegalArgumentException("Invalid batch at offset " + in.position());
+				}
+				List<Move> moves = new ArrayList<Move>(count);
+				for(int i = 0; i < count; i++) {
+					byte kind = in.readByte();
+					int bs = in.readVarint();
+					int bd = in.readVarint();
+					if(kind != opMove && kind != opFreeMove) {
+						throw new IllegalArgumentException("Invalid batch move at offset " + in.position());
+					}
+					if(bs < 0 || bd < 0 || bs >= size * size || bd >= size * size) {
+						throw new IllegalArgumentException("Position out of range at offset " + in.position());
+					}
+					moves.add(new Move(bs, bd, size, kind == opFreeMove));
+				}
+				if(game.doMoves(moves) != count) {
+					throw new IllegalArgumentException("Illegal move in batch at offset " + in.position());
+				}
+				break;
+			case opUndo:
+				if(!game.doUndo()) {
+					throw new IllegalArgumentException("Illegal undo at offset " + in.position());
+				}
+				break;
+			case opReset:
+				size = checkSize(in.readVarint());
+				game.reset(size);
+				break;
+			case opEnd:
+				int score = in.readVarint();
+				int level = in.readVarint();
+				if(score != game.getScore() || level != game.getLevel()) {
+					throw new IllegalArgumentException("Claimed score " + score + " (level " + level + ") but replay gives "
+							+ game.getScore() + " (level " + game.getLevel() + ")");
+				}
+				if(in.hasMore()) {
+					throw new IllegalArgumentException("Entries after the end marker at offset " + in.position());
+				}
+				ended = true;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown command " + op + " at offset " + in.position());
+			}
+		}
+		if(!ended) {
+			throw new IllegalArgumentException("Missing end marker");
+		}
+		return game;
+	}
+
+	/**
+	 * Returns the number of commands (moves, free moves, undos and resets) in an encoded log.
+	 * Every move of a batch counts as one command.
+	 *
+	 * @param log encoded log
+	 * @return
+	 * @throws IllegalArgumentException if the log is malformed
+	 */
+	public static int countCommands(final byte[] log) {
+		Reader in = new Reader(log);
+		in.readInt();
+		in.readByte();
+		in.readVarint();
+		in.readLong();
+		int n = 0;
+		while(in.hasMore()) {
+			byte op = in.readByte();
+			if(op == opMove || op == opFreeMove) {
+				in.readVarint();
+				in.readVarint();
+			} else if(op == opBatch) {
+				int count = in.readVarint();
+				for(int i = 0; i < count; i++) {
+					in.readByte();
+					in.readVarint();
+					in.readVarint();
+				}
+				n += count;
+				continue;
+			} else if(op == opReset) {
+				in.readVarint();
+			} else if(op == opEnd) {
+				in.readVarint();
+				in.readVarint();
+				continue;
+			}
+			n++;
+		}
+		return n;
+	}
+
+	private static int checkSize(int size) {
+		if(size < 1 || size > Game.maxSize) {
+			throw new IllegalArgumentException("Invalid game size " + size);
+		}
+		return size;
+	}
+
+	private void ensureSpace(int n) {
+		if(length + n > data.length) {
+			data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+		}
+	}
+
+	private void writeByte(int b) {
+		ensureSpace(1);
+		data[length++] = (byte) b;
+	}
+
+	private void writeInt(int v) {
+		ensureSpace(4);
+		for(int i = 3; i >= 0; i--) {
+			data[length++] = (byte) (v >>> (i * 8));
+		}
+	}
+
+	private void writeLong(long v) {
+		ensureSpace(8);
+		for(int i = 7; i >= 0; i--) {
+			data[length++] = (byte) (v >>> (i * 8));
+		}
+	}
+
+	private void writeVarint(int v) {
+		ensureSpace(5);
+		while((v & ~0x7F) != 0) {
+			data[length++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		data[length++] = (byte) v;
+	}
+
+	/**
+	 * Decoder for the log format
+	 *
+	 */
+	private static class Reader {
+		private final byte[] data;
+		private int pos;
+
+		Reader(byte[] data) {
+			this.data = data;
+		}
+
+		boolean hasMore() {
+			return pos < data.length;
+		}
+
+		int position() {
+			return pos;
+		}
+
+		byte readByte() {
+			if(pos >= data.length) throw new IllegalArgumentException("Truncated replay log");
+			return data[pos++];
+		}
+
+		int readInt() {
+			int v = 0;
+			for(int i = 0; i < 4; i++) v = (v << 8) | (readByte() & 0xFF);
+			return v;
+		}
+
+		long readLong() {
+			long v = 0;
+			for(int i = 0; i < 8; i++) v = (v << 8) | (readByte() & 0xFF);
+			return v;
+		}
+
+		int readVarint() {
+			int v = 0;
+			for(int shift = 0; shift < 35; shift += 7) {
+				byte b = readByte();
+				v |= (b & 0x7F) << shift;
+				if(b >= 0) return v;
+			}
+			throw new IllegalArgumentException("Malformed varint at offset " + pos);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package ch.bfh.sevennotseven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Headless verifier for replay logs.
+ * Replays many recorded games in parallel on a fork-join pool and checks that the claimed final score and level
+ *  (the end marker of each log) match the replayed game.
+ *
+ */
+public class ReplayVerifier {
+
+	/**
+	 * Result of a verification run
+	 *
+	 */
+	public static class Result {
+
+		private int valid;
+		private int invalid;
+		private long moves; //number of replayed commands
+		private final List<String> errors = new ArrayList<String>();
+
+		Result merge(Result other) {
+			valid += other.valid;
+			invalid += other.invalid;
+			moves += other.moves;
+			errors.addAll(other.errors);
+			return this;
+		}
+
+		public int getValid() {
+			return valid;
+		}
+
+		public int getInvalid() {
+			return invalid;
+		}
+
+		public long getMoves() {
+			return moves;
+		}
+
+		/**
+		 * Returns the error messages of the invalid logs ("index: message")
+		 * @return
+		 */
+		public List<String> getErrors() {
+			return errors;
+		}
+	}
+
+	/**
+	 * Task that verifies the logs from..to-1
+	 *
+	 */
+	private static class VerifyTask extends RecursiveTask<Result> {
+
+		private static final long serialVersionUID = 1L;
+		private static final int logsPerTask = 16;
+
+		private final List<byte[]> logs;
+		private final int from;
+		private final int to;
+
+		VerifyTask(List<byte[]> logs, int from, int to) {
+			this.logs = logs;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Result compute() {
+			if(to - from <= logsPerTask) {
+				Result result = new Result();
+				LineScanner scanner = new LineScanner();
+				for(int i = from; i < to; i++) {
+					try {
+						Game game = ReplayLog.replay(logs.get(i));
+						if(scanner.hasLines(game.getBitBoard())) { //every line has to be cleared at the end of a step
+							throw new IllegalArgumentException("Final position contains an uncleared line");
+						}
+						result.moves += ReplayLog.countCommands(logs.get(i));
+						result.valid++;
+					} catch(IllegalArgumentException e) {
+						result.invalid++;
+						result.errors.add(i + ": " + e.getMessage());
+					}
+				}
+				return result;
+			}
+			int mid = (from + to) >>> 1;
+			VerifyTask left = new VerifyTask(logs, from, mid);
+			left.fork();
+			Result right = new VerifyTask(logs, mid, to).compute();
+			return right.merge(left.join());
+		}
+	}
+
+	/**
+	 * Verifies the given logs
+	 *
+	 * @param pool pool to run the replays on
+	 * @param logs encoded replay logs
+	 * @return
+	 */
+	public static Result verify(ForkJoinPool pool, List<byte[]> logs) {
+		return pool.invoke(new VerifyTask(logs, 0, logs.size()));
+	}
+
+	/**
+	 * Records the given number of games played by a random player
+	 */
+	private static List<byte[]> recordGames(int games, int size) {
+		List<byte[]> logs = new ArrayList<byte[]>();
+		MovePolicy policy = new RandomMovePolicy();
+		for(int i = 0; i < games; i++) {
+			Game game = new Game(size, i, true);
+			Random rand = new Random(i);
+			Move move;
+			while((move = policy.nextMove(game, rand)) != null && move.applyTo(game)) {
+				if(rand.nextInt(20) == 0) game.doUndo();
+			}
+			game.getReplayLog().finish(game);
+			logs.add(game.getReplayLog().toByteArray());
+		}
+		return logs;
+	}
+
+	/**
+	 * Main method
+	 * Arguments: either a directory with replay logs (one per file) to verify,
+	 *  or "record games size" to record and verify random games.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		List<byte[]> logs;
+		if(args.length > 0 && !args[0].equals("record")) {
+			logs = new ArrayList<byte[]>();
+			File[] files = new File(args[0]).listFiles();
+			if(files == null) {
+				System.out.println("Not a directory: " + args[0]);
+				return;
+			}
+			for(File f : files) {
+				RandomAccessFile in = new RandomAccessFile(f, "r");
+				try {
+					byte[] data = new byte[(int) in.length()];
+					in.readFully(data);
+					logs.add(data);
+				} finally {
+					in.close();
+				}
+			}
+		} else {
+			int games = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+			int size = args.length > 2 ? Integer.parseInt(args[2]) : 7;
+			logs = recordGames(games, size);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		verify(pool, logs); //warmup
+		long start = System.nanoTime();
+		Result result = verify(pool, logs);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		System.out.println("Verified " + logs.size() + " games: " + result.getValid() + " valid, " + result.getInvalid() + " invalid");
+		for(String error : result.getErrors()) {
+			System.out.println("  " + error);
+		}
+		System.out.printf("Throughput: %.0f games/s, %.0f moves/s (%.3fs)%n", logs.size() / seconds, result.getMoves() / seconds, seconds);
+	}
+}
@@ -0,0 +1,203 @@
+package ch.bfh.sevennotseven;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Persistent store for game sessions, backed by a memory-mapped file with a fixed number of fixed-size slots.
+ * A game is written to its slot with GameCodec and read back directly from the mapped memory.
+ * Slots are not tied to session ids: every slot records the id of the session it holds, so the caller can
+ *  reuse the slots of removed sessions.
+ * Different slots can be used concurrently, accesses to the same slot have to be synchronised by the caller.
+ *
+ * File layout: magic (4 bytes), number of slots (4 bytes), slot size (4 bytes), reserved (4 bytes), then the slots.
+ *  Each slot starts with the session id (4 bytes) and the length of the encoded game (4 bytes, 0 for an empty slot),
+ *  followed by the encoding.
+ *
+ */
+public class SessionStore implements Closeable {
+
+	static final int magic = 0x374E5353; //"7NSS"
+	static final int headerBytes = 16;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int slots;
+	private final int slotSize;
+
+	/**
+	 * Opens a store, creating the file if it does not exist yet
+	 *
+	 * @param path file of the store
+	 * @param slots number of slots
+	 * @param maxSize largest game size that can be stored
+	 * @throws IOException if the file can not be mapped, or if it exists with a different layout
+	 */
+	public SessionStore(File path, int slots, int maxSize) throws IOException {
+		this.slots = slots;
+		this.slotSize = 8 + GameCodec.maxEncodedSize(maxSize);
+		long length = headerBytes + (long) slots * slotSize;
+		if(slots < 1 || length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid number of slots or size");
+		}
+
+		boolean exists = path.exists() && path.length() > 0;
+		file = new RandomAccessFile(path, "rw");
+		try {
+			if(exists && file.length() != length) {
+				throw new IOException("Session store " + path + " has a different layout");
+			}
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			if(exists) {
+				if(buffer.getInt(0) != magic || buffer.getInt(4) != slots || buffer.getInt(8) != slotSize) {
+					throw new IOException("Session store " + path + " has a different layout");
+				}
+			} else {
+				buffer.putInt(0, magic);
+				buffer.putInt(4, slots);
+				buffer.putInt(8, slotSize);
+			}
+		} catch(IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the number of slots
+	 * @return
+	 */
+	public int getSlotCount() {
+		return slots;
+	}
+
+	/**
+	 * Writes a game to a slot, replacing its previous content
+	 *
+	 * @param slot 0..getSlotCount()-1
+	 * @param id id of the session the game belongs to
+	 * @param game
+	 * @throws IllegalArgumentException if the game is too large for a slot
+	 */
+	public void save(int slot, int id, Game game) {
+		int length = GameCodec.encodedSize(game);
+		if(length > slotSize - 8) {
+			throw new IllegalArgumentException("Game too large for the session store");
+		}
+		ByteBuffer data = slotBuffer(slot);
+		int offset = data.position();
+		data.putInt(offset + 4, 0); //mark the slot as empty while it is written
+		data.putInt(offset, id);
+		data.position(offset + 8);
+		GameCodec.encode(game, data);
+		data.putInt(offset + 4, length);
+	}
+
+	/**
+	 * Returns the id of the session stored in a slot
+	 *
+	 * @param slot 0..getSlotCount()-1
+	 * @return the id, only meaningful if the slot is used
+	 */
+	public int getId(int slot) {
+		return buffer.getInt(slotOffset(slot));
+	}
+
+	/**
+	 * Reads the game of a slot
+	 *
+	 * @param slot 0..getSlotCount()-1
+	 * @return the game, or null if the slot is empty
+	 * @throws IllegalArgumentException if the slot content is corrupt
+	 */
+	public Game load(int slot) {
+		ByteBuffer data = usedSlotBuffer(slot);
+		return data == null ? null : GameCodec.decode(data);
+	}
+
+	/**
+	 * Reads the game of a slot into an existing game
+	 *
+	 * @param slot 0..getSlotCount()-1
+	 * @param game game to overwrite
+	 * @return false if the slot is empty
+	 * @throws IllegalArgumentException if the slot content is corrupt
+	 */
+	public boolean loadInto(int slot, Game game) {
+		ByteBuffer data = usedSlotBuffer(slot);
+		if(data == null) {
+			return false;
+		}
+		GameCodec.decodeInto(data, game);
+		return true;
+	}
+
+	/**
+	 * Returns whether or not a slot holds a game
+	 * @param slot
+	 * @return
+	 */
+	public boolean isUsed(int slot) {
+		return buffer.getInt(slotOffset(slot) + 4) != 0;
+	}
+
+	/**
+	 * Removes the game of a slot
+	 * @param slot
+	 */
+	public void clear(int slot) {
+		buffer.putInt(slotOffset(slot) + 4, 0);
+	}
+
+	/**
+	 * Writes all changes to the disk
+	 */
+	public void flush() {
+		buffer.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		file.close();
+	}
+
+	private int slotOffset(int slot) {
+		if(slot < 0 || slot >= slots) {
+			throw new IndexOutOfBoundsException("Invalid slot " + slot);
+		}
+		return headerBytes + slot * slotSize;
+	}
+
+	/**
+	 * Returns a view of the slot, positioned at its id field
+	 */
+	private ByteBuffer slotBuffer(int slot) {
+		int offset = slotOffset(slot);
+		ByteBuffer data = buffer.duplicate();
+		data.limit(offset + slotSize).position(offset);
+		return data;
+	}
+
+	/**
+	 * Returns a view of the encoded game of the slot, or null if the slot is empty
+	 */
+	private ByteBuffer usedSlotBuffer(int slot) {
+		ByteBuffer data = slotBuffer(slot);
+		data.getInt(); //id
+		int length = data.getInt();
+		if(length == 0) {
+			return null;
+		}
+		if(length < 0 || length > slotSize - 8) {
+			throw new IllegalArgumentException("Corrupt session slot " + slot);
+		}
+		data.limit(data.position() + length);
+		return data;
+	}
+}
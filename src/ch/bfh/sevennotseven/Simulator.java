@@ -0,0 +1,282 @@
+package ch.bfh.sevennotseven;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Headless simulation runner.
+ * Plays many seeded games in parallel on a fork-join pool, using a pluggable move policy, and aggregates the results.
+ * No window is created, so this can be used to evaluate the game balance (e.g. linesPerLevel and blocksPerLevel).
+ *
+ */
+public class Simulator {
+
+	/**
+	 * Aggregated results of a number of games
+	 *
+	 */
+	public static class Stats {
+
+		private long games;
+		private long moves;
+		private long totalScore;
+		private int maxScore;
+		private long totalLevel;
+		private long droppedResults; //results the leaderboard did not accept
+		private TreeMap<Integer, Long> levels = new TreeMap<Integer, Long>(); //number of games per reached level
+
+		/**
+		 * Adds the result of a single game
+		 */
+		void add(Game game, int moveCount) {
+			games++;
+			moves += moveCount;
+			totalScore += game.getScore();
+			maxScore = Math.max(maxScore, game.getScore());
+			totalLevel += game.getLevel();
+			Long n = levels.get(game.getLevel());
+			levels.put(game.getLevel(), n == null ? 1 : n + 1);
+		}
+
+		/**
+		 * Adds the results of other to this object
+		 * @param other
+		 * @return this
+		 */
+		Stats merge(Stats other) {
+			games += other.games;
+			moves += other.moves;
+			totalScore += other.totalScore;
+			maxScore = Math.max(maxScore, other.maxScore);
+			totalLevel += other.totalLevel;
+			droppedResults += other.droppedResults;
+			for(Map.Entry<Integer, Long> e : other.levels.entrySet()) {
+				Long n = levels.get(e.getKey());
+				levels.put(e.getKey(), n == null ? e.getValue() : n + e.getValue());
+			}
+			return this;
+		}
+
+		public long getGames() {
+			return games;
+		}
+
+		public long getMoves() {
+			return moves;
+		}
+
+		public int getMaxScore() {
+			return maxScore;
+		}
+
+		public double getAverageScore() {
+			return games == 0 ? 0 : (double) totalScore / games;
+		}
+
+		public double getAverageLevel() {
+			return games == 0 ? 0 : (double) totalLevel / games;
+		}
+
+		public double getAverageMoves() {
+			return games == 0 ? 0 : (double) moves / games;
+		}
+
+		/**
+		 * Returns the number of results that were dropped because the leaderboard queue was full
+		 * @return
+		 */
+		public long getDroppedResults() {
+			return droppedResults;
+		}
+
+		/**
+		 * Returns the number of games per reached level
+		 * @return
+		 */
+		public Map<Integer, Long> getLevels() {
+			return levels;
+		}
+	}
+
+	/**
+	 * Task that plays the games with the indices from..to-1, splitting itself up if there are too many
+	 *
+	 */
+	private class SimulationTask extends RecursiveTask<Stats> {
+
+		private static final long serialVersionUID = 1L;
+		private static final int gamesPerTask = 8; //number of games a task plays without splitting
+
+		private final int from;
+		private final int to;
+
+		SimulationTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Stats compute() {
+			if(to - from <= gamesPerTask) {
+				Stats stats = new Stats();
+				for(int i = from; i < to; i++) {
+					playGame(i, stats);
+				}
+				return stats;
+			}
+			int mid = (from + to) >>> 1;
+			SimulationTask left = new SimulationTask(from, mid);
+			left.fork();
+			Stats right = new SimulationTask(mid, to).compute();
+			return right.merge(left.join());
+		}
+	}
+
+	private final MovePolicy policy;
+	private final int size;
+	private final long seed;
+	private final int maxMoves;
+	private Leaderboard leaderboard; //receives the result of every game, if set
+
+	/**
+	 * Constructor.
+	 *
+	 * @param policy policy that chooses the moves
+	 * @param size game size
+	 * @param seed base seed. Game i uses a seed derived from seed and i
+	 * @param maxMoves maximum number of moves per game
+	 */
+	public Simulator(MovePolicy policy, int size, long seed, int maxMoves) {
+		this.policy = policy;
+		this.size = size;
+		this.seed = seed;
+		this.maxMoves = maxMoves;
+	}
+
+	/**
+	 * Submits the result of every played game to a leaderboard
+	 * @param leaderboard leaderboard, or null to not record the results
+	 */
+	public void setLeaderboard(Leaderboard leaderboard) {
+		this.leaderboard = leaderboard;
+	}
+
+	/**
+	 * Plays the given number of games on the given pool
+	 *
+	 * @param pool
+	 * @param games number of games
+	 * @return aggregated results
+	 */
+	public Stats run(ForkJoinPool pool, int games) {
+		return pool.invoke(new SimulationTask(0, games));
+	}
+
+	/**
+	 * Returns the seed of game number i
+	 * @param i
+	 * @return
+	 */
+	public long gameSeed(int i) {
+		return seed + i * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * Plays a single game until it is over, the policy gives up, a move fails or maxMoves is reached
+	 */
+	private void playGame(int i, Stats stats) {
+		long gameSeed = gameSeed(i);
+		Game game = new Game(size, gameSeed);
+		Random playerRand = new Random(~gameSeed);
+
+		int moves = 0;
+		while(moves < maxMoves && !game.isGameOver()) {
+			Move move = policy.nextMove(game, playerRand);
+			if(move == null || !move.applyTo(game)) {
+				break;
+			}
+			moves++;
+		}
+		stats.add(game, moves);
+		if(leaderboard != null && !leaderboard.submit(new Leaderboard.Entry(policy.getClass().getSimpleName() + "#" + i, game))) {
+			stats.droppedResults++;
+		}
+	}
+
+	/**
+	 * Creates a move policy with the no-argument constructor of the given class
+	 * @param className fully qualified name of a MovePolicy implementation
+	 * @return
+	 * @throws IllegalArgumentException if the class can not be instantiated or is not a MovePolicy
+	 */
+	static MovePolicy createPolicy(String className) {
+		try {
+			return Class.forName(className).asSubclass(MovePolicy.class).getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Can not create policy " + className + ": " + e, e);
+		} catch(ClassCastException e) {
+			throw new IllegalArgumentException(className + " is not a MovePolicy", e);
+		}
+	}
+
+	/**
+	 * Main method
+	 * Arguments (all optional): games size seed maxMoves threads policyClass leaderboardFile
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		int maxMoves = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		MovePolicy policy = args.length > 5 ? createPolicy(args[5]) : new RandomMovePolicy();
+
+		EngineMetrics.register();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Simulator simulator = new Simulator(policy, size, seed, maxMoves);
+		Leaderboard leaderboard = args.length > 6 ? new Leaderboard(new File(args[6]), 100) : null;
+		simulator.setLeaderboard(leaderboard);
+
+		long start = System.nanoTime();
+		Stats stats = simulator.run(pool, games);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		System.out.println("Games: " + stats.getGames() + " (" + size + "x" + size + ", " + threads + " threads, " + policy.getClass().getSimpleName() + ")");
+		System.out.printf("Score: avg %.2f, max %d%n", stats.getAverageScore(), stats.getMaxScore());
+		System.out.printf("Level: avg %.2f%n", stats.getAverageLevel());
+		for(Map.Entry<Integer, Long> e : stats.getLevels().entrySet()) {
+			System.out.println("  level " + e.getKey() + ": " + e.getValue() + " games");
+		}
+		System.out.printf("Moves: avg %.1f per game, %d total%n", stats.getAverageMoves(), stats.getMoves());
+		System.out.printf("Throughput: %.1f games/s, %.0f moves/s (%.2fs)%n", stats.getGames() / seconds, stats.getMoves() / seconds, seconds);
+
+		if(EngineMetrics.getInstance().isEnabled()) {
+			for(String line : EngineMetrics.getInstance().getSummary()) {
+				System.out.println(line);
+			}
+		}
+
+		if(leaderboard != null) {
+			leaderboard.flush();
+			System.out.println("Leaderboard " + size + "x" + size + ": " + leaderboard.getCount(size) + " results");
+			if(stats.getDroppedResults() > 0) {
+				System.out.println("  " + stats.getDroppedResults() + " results dropped (leaderboard queue full)");
+			}
+			List<Leaderboard.Entry> top = leaderboard.getTop(size, 5);
+			for(int i = 0; i < top.size(); i++) {
+				System.out.println("  " + (i + 1) + ". " + top.get(i));
+			}
+			leaderboard.close();
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package ch.bfh.sevennotseven;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded journal of the last game steps, used to undo moves.
+ * Instead of a copy of the whole game field, each step only records the cells that changed (with their old color),
+ *  the next blocks and the scalar counters from before the step.
+ * The steps are kept in a ring buffer: once the capacity is reached, the oldest step is overwritten.
+ *
+ */
+public class UndoJournal {
+
+	/**
+	 * One recorded game step. Instances are owned and reused by the journal.
+	 *
+	 */
+	public static class Step {
+
+		private int[] cells = new int[8]; //changed cells (x*size+y), in the order of the changes
+		private int[] oldColors = new int[8]; //color of the cell before the change
+		private int changeCount; //number of recorded changes
+		private int[] nextBlocks = new int[8]; //next blocks before the step
+		private int nextBlockCount;
+		private int score;
+		private int linesLeft;
+		private int level;
+
+		/**
+		 * Clears the step and stores the scalar values from before the step
+		 */
+		private void reset(final List<Integer> nextBlocks, int score, int linesLeft, int level) {
+			changeCount = 0;
+			nextBlockCount = nextBlocks.size();
+			if(this.nextBlocks.length < nextBlockCount) {
+				this.nextBlocks = new int[nextBlockCount];
+			}
+			for(int i = 0; i < nextBlockCount; i++) {
+				this.nextBlocks[i] = nextBlocks.get(i);
+			}
+			this.score = score;
+			this.linesLeft = linesLeft;
+			this.level = level;
+		}
+
+		/**
+		 * Appends a cell change
+		 */
+		private void add(int cell, int oldColor) {
+			if(changeCount == cells.length) {
+				cells = Arrays.copyOf(cells, changeCount * 2);
+				oldColors = Arrays.copyOf(oldColors, changeCount * 2);
+			}
+			cells[changeCount] = cell;
+			oldColors[changeCount] = oldColor;
+			changeCount++;
+		}
+
+		/**
+		 * Returns the number of recorded cell changes
+		 * @return
+		 */
+		public int getChangeCount() {
+			return changeCount;
+		}
+
+		/**
+		 * Returns the index (x*size+y) of the i-th changed cell
+		 * @param i
+		 * @return
+		 */
+		public int getCell(int i) {
+			return cells[i];
+		}
+
+		/**
+		 * Returns the color the i-th changed cell had before the change
+		 * @param i
+		 * @return
+		 */
+		public int getOldColor(int i) {
+			return oldColors[i];
+		}
+
+		/**
+		 * Replaces the content of the given list with the next blocks from before the step
+		 * @param out
+		 */
+		public void copyNextBlocks(List<Integer> out) {
+			out.clear();
+			for(int i = 0; i < nextBlockCount; i++) {
+				out.add(nextBlocks[i]);
+			}
+		}
+
+		public int getScore() {
+			return score;
+		}
+
+		public int getLinesLeft() {
+			return linesLeft;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+	}
+
+	private Step[] steps; //ring buffer
+	private int head; //slot of the next step
+	private int count; //number of steps in the buffer
+	private boolean recording; //whether cell changes are currently recorded
+
+	/**
+	 * Creates a new journal
+	 * @param capacity maximum number of steps to keep
+	 */
+	public UndoJournal(int capacity) {
+		steps = new Step[capacity];
+	}
+
+	/**
+	 * Returns the number of steps that can be undone
+	 * @return
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns whether or not there are steps that can be undone
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Returns whether or not a step is currently being recorded
+	 * @return
+	 */
+	public boolean isRecording() {
+		return recording;
+	}
+
+	/**
+	 * Starts recording a new step. The values passed are the ones from before the step.
+	 * Overwrites the oldest step if the journal is full. Does nothing if the capacity is 0.
+	 */
+	public void begin(final List<Integer> nextBlocks, int score, int linesLeft, int level) {
+		if(steps.length == 0) {
+			return;
+		}
+		Step step = steps[head];
+		if(step == null) {
+			step = new Step();
+			steps[head] = step;
+		}
+		step.reset(nextBlocks, score, linesLeft, level);
+		head = (head + 1) % steps.length;
+		count = Math.min(count + 1, steps.length);
+		recording = true;
+	}
+
+	/**
+	 * Records a cell change of the current step
+	 * @param cell index (x*size+y) of the cell
+	 * @param oldColor color before the change
+	 */
+	public void record(int cell, int oldColor) {
+		if(recording) {
+			steps[(head - 1 + steps.length) % steps.length].add(cell, oldColor);
+		}
+	}
+
+	/**
+	 * Stops recording the current step
+	 */
+	public void end() {
+		recording = false;
+	}
+
+	/**
+	 * Removes the newest step from the journal. Its changes should be replayed in reverse order.
+	 * The returned object stays valid until the next call to begin().
+	 *
+	 * @return the newest step, or null if the journal is empty
+	 */
+	public Step pop() {
+		if(count == 0) {
+			return null;
+		}
+		recording = false;
+		head = (head - 1 + steps.length) % steps.length;
+		count--;
+		return steps[head];
+	}
+
+	/**
+	 * Changes the maximum number of steps. The newest steps are kept.
+	 * @param capacity
+	 */
+	public void setCapacity(int capacity) {
+		if(capacity == steps.length) {
+			return;
+		}
+		Step[] resized = new Step[capacity];
+		int kept = Math.min(count, capacity);
+		for(int i = 0; i < kept; i++) { //copy the newest steps, oldest first
+			resized[i] = steps[(head - kept + i + steps.length) % steps.length];
+		}
+		steps = resized;
+		count = kept;
+		head = capacity == 0 ? 0 : kept % capacity;
+		if(capacity == 0) {
+			recording = false;
+		}
+	}
+
+	/**
+	 * Removes all steps
+	 */
+	public void clear() {
+		head = 0;
+		count = 0;
+		recording = false;
+	}
+}
@@ -22,7 +22,7 @@ import javax.swing.JPanel;
  * Window class, contains the welcome screen and the game itself
  * 
  */
-public class Window  extends JFrame implements ActionListener, Game.UpdateListener {
+public class Window  extends JFrame implements ActionListener, Game.EventListener {
 	
 	private static final long serialVersionUID = 1L;
 	private Game game;
@@ -48,7 +48,7 @@ public class Window  extends JFrame implements ActionListener, Game.UpdateListen
 		super(title);
 		
 		game = new Game();
-		game.addUpdateListener(this); //register for game updates
+		game.addEventListener(this); //register for game updates
 		
 		initMainLayout();
 	}
@@ -181,18 +181,24 @@ public class Window  extends JFrame implements ActionListener, Game.UpdateListen
 	}
 	
 	/**
-	 * GameUpdateListener: gets called when the games was updated (e.g. user made a move)
+	 * GameEventListener: gets called when the games was updated (e.g. user made a move)
 	 */
 	@Override
-	public void gameUpdated() {
-		labelScore.setText("Score: "+game.getScore());
-		buttonFreeMove.setEnabled(game.getAvailFreeMoves()>0);
-		buttonUndo.setEnabled(game.getAvailUndo()>0);
-		buttonFreeMove.setText("Free Move ("+game.getAvailFreeMoves()+")");
-		buttonUndo.setText("Undo ("+game.getAvailUndo()+")");
-		labelLinesLeft.setText("Lines Left: "+game.getLinesLeft());
-		labelLevel.setText("Level: "+game.getLevel());
-		
+	public void gameChanged(GameEvent event) {
+		BoardSnapshot state = event.getSnapshot();
+		buttonFreeMove.setEnabled(state.getAvailFreeMoves()>0);
+		buttonUndo.setEnabled(state.getAvailUndo()>0);
+		buttonFreeMove.setText("Free Move ("+state.getAvailFreeMoves()+")");
+		buttonUndo.setText("Undo ("+state.getAvailUndo()+")");
+		
+		//score and lines only change if lines were cleared (or the step was undone/the game restarted)
+		if(event.getLinesCleared() > 0 || event.getType() != GameEvent.Type.STEP) {
+			labelScore.setText("Score: "+state.getScore());
+			labelLinesLeft.setText("Lines Left: "+state.getLinesLeft());
+		}
+		if(event.isLevelUp() || event.getType() != GameEvent.Type.STEP) {
+			labelLevel.setText("Level: "+state.getLevel());
+		}
 	}
 
 	/**
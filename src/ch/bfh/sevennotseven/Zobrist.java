@@ -0,0 +1,68 @@
+package ch.bfh.sevennotseven;
+
+/**
+ * Keys for the Zobrist hashing of game positions.
+ * The hash of a position is the xor of one key per occupied cell (depending on the cell and its color),
+ *  one key per entry of the next blocks queue and one key for the level. So it can be updated incrementally
+ *  by xor-ing the keys of the changed parts in and out.
+ * Instead of a random table (which would get huge on large fields), the keys are derived with the SplitMix64
+ *  finalizer, which gives the same quality for this purpose.
+ *
+ */
+public final class Zobrist {
+
+	private static final long cellSalt = 0x243F6A8885A308D3L;
+	private static final long queueSalt = 0x13198A2E03707344L;
+	private static final long levelSalt = 0xA4093822299F31D0L;
+
+	private Zobrist() {
+	}
+
+	/**
+	 * Returns the key of a block with the given color on the given cell
+	 * @param cell x*size+y
+	 * @param color color of the block (1..numberOfColors)
+	 * @return
+	 */
+	public static long cellKey(int cell, int color) {
+		return mix(cellSalt + ((long) cell << 4) + color);
+	}
+
+	/**
+	 * Returns the key of the given color at the given position of the next blocks queue
+	 * @param position
+	 * @param color
+	 * @return
+	 */
+	public static long queueKey(int position, int color) {
+		return mix(queueSalt + ((long) position << 4) + color);
+	}
+
+	/**
+	 * Returns the key of the given level
+	 * @param level
+	 * @return
+	 */
+	public static long levelKey(int level) {
+		return mix(levelSalt + level);
+	}
+
+	/**
+	 * Mixes additional values into a hash (e.g. to build cache keys)
+	 * @param hash
+	 * @param value
+	 * @return
+	 */
+	public static long combine(long hash, long value) {
+		return mix(hash ^ mix(value + 0x9E3779B97F4A7C15L));
+	}
+
+	/**
+	 * SplitMix64 finalizer
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}